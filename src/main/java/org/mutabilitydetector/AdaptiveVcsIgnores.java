@@ -0,0 +1,306 @@
+package org.mutabilitydetector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses between evaluating rules per query and a walked snapshot of the working tree, according to the workload.
+ * <p>
+ * Queries are answered by a {@link BaseGitIgnore} to begin with. Once enough queries have been made, quickly enough,
+ * and spread across enough of the repository, as set by the {@link Policy}, a {@link GitIgnoresByWalkingFileSystem}
+ * snapshot is built in the background, walking with the compiled rules of the same engine, and answers queries from
+ * then on. The snapshot only holds the files and directories the walk found not ignored, so only those are answered
+ * from it. Any other path, such as one ignored, created since the walk, or inside a nested repository, is still
+ * answered by the rules, so every path is answered the same either side of the switch. Sparse queries on a huge
+ * repository never pay for the walk, while dense scans of tracked files end up at a hash lookup per path.
+ * <p>
+ * The snapshot does not see changes to .gitignore files. When the {@link RulesGeneration} of the rules engine moves,
+ * for example after {@link BaseGitIgnore#refresh()}, the snapshot is discarded and the workload measured afresh.
+ */
+public final class AdaptiveVcsIgnores implements VcsIgnores, RulesGeneration, RetainedSize, Closeable {
+
+    /**
+     * When to switch to a snapshot. All three thresholds must be met.
+     */
+    public static final class Policy {
+        public static final Policy DEFAULT = new Policy(10000, 1000, 0.5);
+        public static final Policy NEVER = new Policy(Long.MAX_VALUE, Double.MAX_VALUE, 1.0);
+
+        private final long minimumQueries;
+        private final double minimumQueriesPerSecond;
+        private final double minimumCoverage;
+
+        /**
+         * @param minimumCoverage the fraction of the entries at the top of the working tree which queries must have
+         * reached, between 0 and 1
+         */
+        public Policy(long minimumQueries, double minimumQueriesPerSecond, double minimumCoverage) {
+            this.minimumQueries = minimumQueries;
+            this.minimumQueriesPerSecond = minimumQueriesPerSecond;
+            this.minimumCoverage = minimumCoverage;
+        }
+
+        boolean favoursSnapshot(long queries, double queriesPerSecond, double coverage) {
+            return queries >= minimumQueries && queriesPerSecond >= minimumQueriesPerSecond && coverage >= minimumCoverage;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Policy[minimumQueries=%d, minimumQueriesPerSecond=%.0f, minimumCoverage=%.2f]",
+                    minimumQueries, minimumQueriesPerSecond, minimumCoverage);
+        }
+    }
+
+    private static final int QUERIES_BETWEEN_POLICY_CHECKS = 1024;
+
+    private static final Executor THREAD_PER_BUILD = new Executor() {
+        @Override public void execute(Runnable build) {
+            Thread thread = new Thread(build, "AdaptiveVcsIgnores snapshot");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    };
+
+    private final BaseGitIgnore rules;
+    private final File rootDir;
+    private final Policy policy;
+    private final Executor executor;
+
+    private volatile Workload workload;
+    private volatile GitIgnoresByWalkingFileSystem snapshot;
+    private final AtomicBoolean building = new AtomicBoolean();
+
+    private final AtomicLong ruleEvaluations = new AtomicLong();
+    private final AtomicLong snapshotLookups = new AtomicLong();
+    private final AtomicLong switches = new AtomicLong();
+    private final AtomicLong discardedSnapshots = new AtomicLong();
+    private volatile long lastSwitchAfterQueries = -1;
+    private volatile long lastBuildMillis = -1;
+
+    public AdaptiveVcsIgnores(BaseGitIgnore rules, File rootDir, Policy policy) {
+        this(rules, rootDir, policy, THREAD_PER_BUILD);
+    }
+
+    public AdaptiveVcsIgnores(BaseGitIgnore rules, File rootDir, Policy policy, Executor executor) {
+        this.rules = rules;
+        this.rootDir = rootDir;
+        this.policy = policy;
+        this.executor = executor;
+        this.workload = new Workload(rules.generation(), topLevelEntries(rootDir));
+    }
+
+    public static AdaptiveVcsIgnores fromRootDir(String absolutePath) {
+        return fromRootDir(absolutePath, Policy.DEFAULT);
+    }
+
+    public static AdaptiveVcsIgnores fromRootDir(String absolutePath, Policy policy) {
+        return new AdaptiveVcsIgnores(GitIgnoresByGlob.fromRootDir(absolutePath), new File(absolutePath), policy);
+    }
+
+    @Override
+    public boolean isIgnored(String relativePath) {
+        Workload current = currentWorkload();
+        GitIgnoresByWalkingFileSystem answering = snapshot;
+        if (answering != null) {
+            if (answering.walked(normalise(relativePath))) {
+                snapshotLookups.incrementAndGet();
+                return false;
+            }
+        } else {
+            long queries = current.record(relativePath);
+            if (queries % QUERIES_BETWEEN_POLICY_CHECKS == 0
+                    && policy.favoursSnapshot(queries, current.queriesPerSecond(), current.coverage())) {
+                buildSnapshot(current);
+            }
+        }
+        ruleEvaluations.incrementAndGet();
+        return rules.isIgnored(relativePath);
+    }
+
+    private Workload currentWorkload() {
+        Workload current = workload;
+        long generation = rules.generation();
+        if (current.rulesGeneration == generation) {
+            return current;
+        }
+        synchronized (this) {
+            if (workload.rulesGeneration != generation) {
+                if (snapshot != null) {
+                    discardedSnapshots.incrementAndGet();
+                }
+                close(snapshot);
+                snapshot = null;
+                workload = new Workload(generation, topLevelEntries(rootDir));
+            }
+            return workload;
+        }
+    }
+
+    private void buildSnapshot(final Workload measured) {
+        if (!building.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override public void run() {
+                try {
+                    long start = System.nanoTime();
+                    GitIgnoresByWalkingFileSystem built = GitIgnoresByWalkingFileSystem.fromRootDir(rootDir.getAbsolutePath(), rules);
+                    lastBuildMillis = (System.nanoTime() - start) / 1000000;
+                    publish(measured, built);
+                } finally {
+                    building.set(false);
+                }
+            }
+        });
+    }
+
+    private synchronized void publish(Workload measured, GitIgnoresByWalkingFileSystem built) {
+        if (workload != measured) {
+            close(built);
+            return;
+        }
+        snapshot = built;
+        lastSwitchAfterQueries = measured.queries.get();
+        switches.incrementAndGet();
+    }
+
+    /**
+     * Moves with the rules engine only, as a snapshot answers just as the rules it was walked with do.
+     */
+    @Override
+    public long generation() {
+        return rules.generation();
+    }
+
+    BaseGitIgnore rules() {
+        return rules;
+    }
+
+    public boolean isUsingSnapshot() {
+        return snapshot != null;
+    }
+
+    public long ruleEvaluations() {
+        return ruleEvaluations.get();
+    }
+
+    public long snapshotLookups() {
+        return snapshotLookups.get();
+    }
+
+    public long switches() {
+        return switches.get();
+    }
+
+    public long discardedSnapshots() {
+        return discardedSnapshots.get();
+    }
+
+    /**
+     * @return the number of queries which had been made when the engine last switched to a snapshot, or -1 if it
+     * never has
+     */
+    public long lastSwitchAfterQueries() {
+        return lastSwitchAfterQueries;
+    }
+
+    public long lastBuildMillis() {
+        return lastBuildMillis;
+    }
+
+    @Override
+    public long estimatedRetainedBytes() {
+        GitIgnoresByWalkingFileSystem current = snapshot;
+        long snapshotBytes = current == null ? 0 : current.estimatedRetainedBytes();
+        return rules.estimatedRetainedBytes() + snapshotBytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        close(snapshot);
+        snapshot = null;
+    }
+
+    private static void close(VcsIgnores ignores) {
+        if (ignores instanceof Closeable) {
+            try {
+                ((Closeable) ignores).close();
+            } catch (IOException e) {
+                // Ignore, as with Apache Commons IOUtils.closeQuietly.
+            }
+        }
+    }
+
+    private static String normalise(String path) {
+        int start = path.startsWith("/") ? 1 : 0;
+        int end = path.endsWith("/") && path.length() > start ? path.length() - 1 : path.length();
+        return start == 0 && end == path.length() ? path : path.substring(start, end);
+    }
+
+    private static int topLevelEntries(File rootDir) {
+        String[] entries = rootDir.list();
+        if (entries == null) {
+            return 1;
+        }
+        int count = 0;
+        for (String entry: entries) {
+            if (!entry.equals(".git")) {
+                count++;
+            }
+        }
+        return Math.max(count, 1);
+    }
+
+    @Override
+    public String toString() {
+        Workload current = workload;
+        return String.format("AdaptiveVcsIgnores[mode=%s, queries=%d, queriesPerSecond=%.0f, coverage=%.2f, "
+                        + "ruleEvaluations=%d, snapshotLookups=%d, switches=%d, lastSwitchAfterQueries=%d, "
+                        + "lastBuildMillis=%d, %s]",
+                isUsingSnapshot() ? "snapshot" : "rules", current.queries.get(), current.queriesPerSecond(),
+                current.coverage(), ruleEvaluations(), snapshotLookups(), switches(), lastSwitchAfterQueries,
+                lastBuildMillis, policy);
+    }
+
+    /**
+     * Queries made since the rules last changed: how many, how quickly, and which entries at the top of the working
+     * tree they reached.
+     */
+    private static final class Workload {
+        final long rulesGeneration;
+        final int topLevelEntries;
+        final long startNanos = System.nanoTime();
+        final AtomicLong queries = new AtomicLong();
+        final Set<String> topLevelReached = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        Workload(long rulesGeneration, int topLevelEntries) {
+            this.rulesGeneration = rulesGeneration;
+            this.topLevelEntries = topLevelEntries;
+        }
+
+        long record(String relativePath) {
+            if (topLevelReached.size() < topLevelEntries) {
+                String path = relativePath.startsWith("/") ? relativePath.substring(1) : relativePath;
+                int slash = path.indexOf('/');
+                topLevelReached.add(slash < 0 ? path : path.substring(0, slash));
+            }
+            return queries.incrementAndGet();
+        }
+
+        double queriesPerSecond() {
+            long elapsedNanos = Math.max(System.nanoTime() - startNanos, 1);
+            return queries.get() * 1e9 / elapsedNanos;
+        }
+
+        double coverage() {
+            return Math.min(1.0, (double) topLevelReached.size() / topLevelEntries);
+        }
+    }
+}
@@ -1,72 +1,255 @@
 package org.mutabilitydetector;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import org.eclipse.jgit.lib.ObjectId;
 
-public abstract class BaseGitIgnore implements VcsIgnores {
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+public abstract class BaseGitIgnore implements VcsIgnores, RulesGeneration, RetainedSize {
     protected final RepositoryRoot rootDirectory;
+    private final CompiledRulesCache rulesCache;
+    private final boolean ignoreCase;
+    private volatile IgnoreTrie trie;
+    private final AtomicLong generation = new AtomicLong();
+
+    private static final Map<ObjectId, CompiledIgnoreRules> NOTHING_INHERITED = Collections.emptyMap();
 
     protected BaseGitIgnore(RepositoryRoot rootDirectory) {
+        this(rootDirectory, null);
+    }
+
+    /**
+     * @param rulesCache shared with other engines of the same type, or null to compile every .gitignore file
+     */
+    protected BaseGitIgnore(RepositoryRoot rootDirectory, CompiledRulesCache rulesCache) {
         this.rootDirectory = rootDirectory;
+        this.rulesCache = rulesCache;
+        this.ignoreCase = rootDirectory.isIgnoreCase();
+    }
+
+    /**
+     * @return true if the repository sets core.ignorecase, so rules are compiled to match paths regardless of case,
+     * and callers need not fold the case of paths themselves
+     */
+    public boolean isIgnoreCase() {
+        return ignoreCase;
     }
 
     @Override
     public boolean isIgnored(String pathToCheck) {
-        RepositoryFile fileToCheck = rootDirectory.fromPath(pathToCheck);
-        boolean pathIsForDirectory = fileToCheck.isDirectory();
-        RepositoryFile directoryContainingFileToCheck = pathIsForDirectory ? fileToCheck : fileToCheck.getParent();
-        Iterator<RepositoryFile> pathSegments = createPathSegmentsFromRootTo(directoryContainingFileToCheck);
-        return descendInSearchOfGitIgnoreFile(fileToCheck, pathSegments, pathIsForDirectory);
-    }
-
-    private Iterator<RepositoryFile> createPathSegmentsFromRootTo(RepositoryFile file) {
-        LinkedList<RepositoryFile> files = new LinkedList<>();
-        RepositoryFile currentFile = file;
-        files.addFirst(currentFile);
-
-        while (!currentFile.isRoot()) {
-            RepositoryFile parentFile = currentFile.getParent();
-            files.addLast(parentFile);
-            currentFile = parentFile;
-        }
+        return explain(pathToCheck).isIgnored();
+    }
 
-        return files.iterator();
+    public IgnoreDecision explain(String pathToCheck) {
+        return explain(pathToCheck, rootDirectory.fromPath(pathToCheck).isDirectory());
     }
 
-    private boolean descendInSearchOfGitIgnoreFile(RepositoryFile fileToCheck, Iterator<RepositoryFile> pathSegments, boolean isDirectory) {
-        return pathSegments.hasNext()
-                ? checkAgainstCurrentGitIgnoreAndDescendIfNecessary(fileToCheck, pathSegments, isDirectory)
-                : false;
+    /**
+     * As {@link #explain(String)}, for callers who already know whether the path is a directory, such as a tree walk.
+     */
+    public IgnoreDecision explain(String pathToCheck, boolean isDirectory) {
+        if (!IgnoreEvents.isEnabled()) {
+            return trie().explain(pathToCheck, isDirectory);
+        }
+        long start = System.nanoTime();
+        IgnoreTrie existing = trie;
+        IgnoreTrie current = trie();
+        long loadsBefore = current.loads();
+        IgnoreDecision decision = current.explain(pathToCheck, isDirectory);
+        boolean cacheHit = current == existing && current.loads() == loadsBefore;
+        IgnoreEvents.lookup(pathToCheck, decision, System.nanoTime() - start, cacheHit);
+        return decision;
     }
 
-    private boolean checkAgainstCurrentGitIgnoreAndDescendIfNecessary(
-            RepositoryFile fileToCheck,
-            Iterator<RepositoryFile> pathSegments,
-            boolean isDirectory) {
+    /**
+     * Whether the path is ignored, together with the attributes its .gitattributes files assign to it, resolved in
+     * one walk down the path rather than one for each.
+     */
+    public IgnoreAndAttributes explainWithAttributes(String pathToCheck) {
+        return explainWithAttributes(pathToCheck, rootDirectory.fromPath(pathToCheck).isDirectory());
+    }
 
-        RepositoryFile current = pathSegments.next();
-        if (current.isInternal()) {
-            return true;
+    public IgnoreAndAttributes explainWithAttributes(String pathToCheck, boolean isDirectory) {
+        return trie().explainWithAttributes(pathToCheck, isDirectory);
+    }
+
+    /**
+     * Lists the entries of a directory which are not ignored, for showing one directory of a file tree at a time. The
+     * directory is read once, and the rules which apply inside it are resolved once for all of its entries.
+     *
+     * @param rootDir the directory this repository root was created from
+     * @param directory the repository relative path of the directory to list, empty for the root
+     * @return the names of the entries which are not ignored, in the order the file system lists them
+     */
+    public List<String> listNotIgnored(File rootDir, String directory) throws IOException {
+        Map<String, Boolean> entries = new LinkedHashMap<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(rootDir.toPath().resolve(directory))) {
+            for (Path child: children) {
+                BasicFileAttributes attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                entries.put(child.getFileName().toString(), attributes.isDirectory());
+            }
         }
+        return trie().notIgnored(directory, entries);
+    }
+
+    /**
+     * The entries of one directory which are ignored, see {@link IgnoreTrie#ignored(String, Map)}.
+     */
+    List<String> ignored(String directory, Map<String, Boolean> entries) {
+        return trie().ignored(directory, entries);
+    }
+
+    /**
+     * Pins the rules currently in use, so a batch of lookups all see the same rules whatever reloads happen
+     * meanwhile. Only snapshots published by {@link #reloadSnapshot(File, ExecutorService)} are guaranteed never to
+     * read a .gitignore file after being pinned, see {@link IgnoreSnapshot#isComplete()}.
+     */
+    public synchronized IgnoreSnapshot snapshot() {
+        return new IgnoreSnapshot(this, trie(), generation.get());
+    }
+
+    /**
+     * Builds a new snapshot with every .gitignore file under the given directory loaded, then publishes it
+     * atomically for subsequent lookups. Lookups and pinned snapshots carry on with the previous rules until then.
+     * Compiled rules of .gitignore files whose content has not changed are carried over from the previous rules.
+     */
+    public IgnoreSnapshot reloadSnapshot(File rootDir, ExecutorService executor) throws InterruptedException {
+        IgnoreTrie previous = trie;
+        Map<ObjectId, CompiledIgnoreRules> inherited = previous == null
+                ? Collections.<ObjectId, CompiledIgnoreRules>emptyMap()
+                : previous.compiledByContent();
+        IgnoreTrie next = new IgnoreTrie(rootDirectory, this, inherited);
+        RulesPreload.start(rootDir, next, executor).awaitReady();
+        return publish(next);
+    }
 
-        IgnoreRules currentGitIgnore = current.getIgnoreRules();
-
-        if (currentGitIgnore.exists()) {
-            switch (getMatchResult(fileToCheck.pathRelativeTo(current), currentGitIgnore, isDirectory)) {
-                case DOES_NOT_MATCH:
-                    return descendInSearchOfGitIgnoreFile(fileToCheck, pathSegments, isDirectory);
-                case IS_IGNORED:
-                    return true;
-                case IS_NOT_IGNORED:
-                default:
-                    return false;
+    private IgnoreTrie trie() {
+        IgnoreTrie current = trie;
+        if (current == null) {
+            synchronized (this) {
+                current = trie;
+                if (current == null) {
+                    current = new IgnoreTrie(rootDirectory, this, NOTHING_INHERITED);
+                    trie = current;
+                }
             }
-        } else {
-            return descendInSearchOfGitIgnoreFile(fileToCheck, pathSegments, isDirectory);
         }
+        return current;
+    }
+
+    private synchronized IgnoreSnapshot publish(IgnoreTrie next) {
+        trie = next;
+        return new IgnoreSnapshot(this, next, generation.incrementAndGet());
+    }
+
+    /**
+     * Starts loading every .gitignore file under the given directory, which should be the one this repository root
+     * was created from, using the executor. Lookups may be made before the preload is ready.
+     */
+    public RulesPreload preload(File rootDir, ExecutorService executor) {
+        return RulesPreload.start(rootDir, trie(), executor);
+    }
+
+    /**
+     * Starts finding every ignored path under the given directory, which should be the one this repository root was
+     * created from, listing directories in parallel using the executor. An ignored directory is reported as a single
+     * entry, without listing what it holds unless sizes are wanted.
+     */
+    public CleanPlan planClean(File rootDir, boolean withSizes, ExecutorService executor) {
+        return CleanPlan.start(this, rootDir, withSizes, executor);
+    }
+
+    /**
+     * Discards every compiled .gitignore file, so that changes on disk are picked up by subsequent lookups. Rules
+     * preloaded before are discarded too.
+     */
+    public synchronized void reload() {
+        trie = null;
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Checks whether any .gitignore file used so far has changed, been created or deleted, and reloads if so.
+     *
+     * @return true if the rules were reloaded
+     */
+    public boolean refresh() {
+        IgnoreTrie current = trie;
+        if (current != null && current.hasChanged()) {
+            reload();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves on every {@link #reload()}, including those caused by {@link #refresh()}, and every published snapshot.
+     */
+    @Override
+    public long generation() {
+        return generation.get();
     }
 
-    protected abstract IgnoreRuleMatch getMatchResult(String pathToCheck, IgnoreRules currentGitIgnore, boolean isDirectory);
+    /**
+     * @return an estimate for the .gitignore files loaded so far, excluding any held by a shared
+     * {@link CompiledRulesCache}
+     */
+    @Override
+    public long estimatedRetainedBytes() {
+        IgnoreTrie current = trie;
+        return current == null ? 0 : current.estimatedBytes();
+    }
+
+    /**
+     * @return how many lines were dropped, as never able to decide a path, from each .gitignore file loaded so far,
+     * by the repository relative path of its directory. Files nothing was dropped from are left out.
+     */
+    public Map<String, Integer> rulesRemovedByOptimizer() {
+        IgnoreTrie current = trie;
+        return current == null ? Collections.<String, Integer>emptyMap() : current.removedRulesByDirectory();
+    }
+
+    /**
+     * @return the compiled rules of every .gitignore file loaded so far, once each
+     */
+    Collection<CompiledIgnoreRules> loadedRules() {
+        IgnoreTrie current = trie;
+        return current == null ? Collections.<CompiledIgnoreRules>emptyList() : current.loadedRules();
+    }
 
+    /**
+     * @return the compiled rules of every .gitignore and .gitattributes file loaded so far, once each, including
+     * those a shared {@link CompiledRulesCache} holds as well
+     */
+    Collection<CompiledIgnoreRules> heldRules() {
+        IgnoreTrie current = trie;
+        return current == null ? Collections.<CompiledIgnoreRules>emptyList() : current.heldRules();
+    }
+
+    CompiledRulesCache rulesCache() {
+        return rulesCache;
+    }
+
+    protected abstract CompiledIgnoreRules compile(List<IgnoreRule> rules);
+
+    /**
+     * Compiles the rules of a .gitignore file, less the lines which can never decide a path, see
+     * {@link RuleSetOptimizer}.
+     */
+    final CompiledIgnoreRules compileIgnoreFile(List<IgnoreRule> rules) {
+        return RuleSetOptimizer.optimize(this, rules);
+    }
 
 }
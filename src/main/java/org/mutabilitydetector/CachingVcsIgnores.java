@@ -0,0 +1,126 @@
+package org.mutabilitydetector;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the decisions of another {@link VcsIgnores} for the most recently queried paths, so that asking about
+ * the same path again is a single hash lookup.
+ * <p>
+ * Every decision is dropped as soon as the {@link RulesGeneration} moves, so answers are never stale with respect to
+ * the rules the underlying engine has loaded. A {@link BaseGitIgnore} does not notice edits to .gitignore files by
+ * itself: its generation moves only on {@link BaseGitIgnore#refresh()} or {@link BaseGitIgnore#reload()}, and until
+ * one of those is called, {@link #caching(BaseGitIgnore, int)} keeps giving the answers of the old rules. An engine
+ * wrapped by {@link #refreshing(BaseGitIgnore, int, long, TimeUnit)} is checked for changes itself, at most once per
+ * interval, so edits are seen within that interval.
+ */
+public final class CachingVcsIgnores implements VcsIgnores {
+
+    private static final RulesGeneration NEVER_CHANGES = new RulesGeneration() {
+        @Override public long generation() { return 0; }
+    };
+
+    private final VcsIgnores delegate;
+    private final RulesGeneration rulesGeneration;
+    private final Map<String, Boolean> decisions;
+    private long cachedGeneration;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingVcsIgnores(VcsIgnores delegate, RulesGeneration rulesGeneration, final int maximumSize) {
+        this.delegate = delegate;
+        this.rulesGeneration = rulesGeneration;
+        this.cachedGeneration = rulesGeneration.generation();
+        this.decisions = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    public static CachingVcsIgnores caching(BaseGitIgnore delegate, int maximumSize) {
+        return new CachingVcsIgnores(delegate, delegate, maximumSize);
+    }
+
+    /**
+     * Calls {@link BaseGitIgnore#refresh()} before a lookup whenever the interval has passed since the last check.
+     * A check reads only the .gitignore files whose modification time or size has moved.
+     */
+    public static CachingVcsIgnores refreshing(BaseGitIgnore delegate, int maximumSize, long interval, TimeUnit unit) {
+        return new CachingVcsIgnores(delegate, new RefreshingGeneration(delegate, unit.toNanos(interval)), maximumSize);
+    }
+
+    /**
+     * For engines which never change their rules, such as {@link GitIgnoresByWalkingFileSystem}.
+     */
+    public static CachingVcsIgnores caching(VcsIgnores delegate, int maximumSize) {
+        return new CachingVcsIgnores(delegate, NEVER_CHANGES, maximumSize);
+    }
+
+    @Override
+    public boolean isIgnored(String relativePath) {
+        long generation = rulesGeneration.generation();
+        synchronized (decisions) {
+            if (generation != cachedGeneration) {
+                decisions.clear();
+                cachedGeneration = generation;
+            }
+            Boolean known = decisions.get(relativePath);
+            if (known != null) {
+                hits.incrementAndGet();
+                return known;
+            }
+        }
+
+        misses.incrementAndGet();
+        boolean isIgnored = delegate.isIgnored(relativePath);
+        synchronized (decisions) {
+            if (generation == cachedGeneration) {
+                decisions.put(relativePath, isIgnored);
+            }
+        }
+        return isIgnored;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        synchronized (decisions) {
+            return String.format("CachingVcsIgnores[size=%d, generation=%d, hits=%d, misses=%d]",
+                    decisions.size(), cachedGeneration, hits(), misses());
+        }
+    }
+
+    private static final class RefreshingGeneration implements RulesGeneration {
+        private final BaseGitIgnore rules;
+        private final long intervalNanos;
+        private final AtomicLong nextCheck;
+
+        RefreshingGeneration(BaseGitIgnore rules, long intervalNanos) {
+            this.rules = rules;
+            this.intervalNanos = intervalNanos;
+            this.nextCheck = new AtomicLong(System.nanoTime() + intervalNanos);
+        }
+
+        @Override
+        public long generation() {
+            long due = nextCheck.get();
+            long now = System.nanoTime();
+            if (now - due >= 0 && nextCheck.compareAndSet(due, now + intervalNanos)) {
+                rules.refresh();
+            }
+            return rules.generation();
+        }
+    }
+}
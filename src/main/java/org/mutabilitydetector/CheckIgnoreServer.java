@@ -0,0 +1,170 @@
+package org.mutabilitydetector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Answers ignore queries for one repository, reading paths from stdin in the manner of
+ * {@code git check-ignore --stdin}, so that a single process can serve any number of queries.
+ * <pre>
+ *   java org.mutabilitydetector.CheckIgnoreServer [--engine glob|jgit|walk|walk-lazy|adaptive] [-z] [-v] [-n] &lt;repository root&gt;
+ * </pre>
+ * Paths are separated by newlines, or NUL with {@code -z}. Ignored paths are written back, or with {@code -v} the
+ * deciding rule as {@code <source>:<line>:<pattern><TAB><path>}, and with {@code -n} unmatched paths as well. Output
+ * is buffered, and flushed whenever no further input is waiting, so a client writing one path at a time gets each
+ * answer straight away while a client writing many gets them in batches.
+ * <p>
+ * Exits with 0 if any path was ignored, 1 if none were, and 128 for bad usage, as git does.
+ */
+public final class CheckIgnoreServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final VcsIgnores ignores;
+    private final boolean nulTerminated;
+    private final boolean verbose;
+    private final boolean nonMatching;
+
+    CheckIgnoreServer(VcsIgnores ignores, boolean nulTerminated, boolean verbose, boolean nonMatching) {
+        this.ignores = ignores;
+        this.nulTerminated = nulTerminated;
+        this.verbose = verbose;
+        this.nonMatching = nonMatching;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String engine = "glob";
+        boolean nulTerminated = false;
+        boolean verbose = false;
+        boolean nonMatching = false;
+        String rootDir = null;
+        boolean badUsage = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--engine": engine = i + 1 < args.length ? args[++i] : null; break;
+                case "-z": nulTerminated = true; break;
+                case "-v":
+                case "--verbose": verbose = true; break;
+                case "-n":
+                case "--non-matching": nonMatching = true; break;
+                default:
+                    badUsage |= args[i].startsWith("-") || rootDir != null;
+                    rootDir = args[i];
+            }
+        }
+
+        VcsIgnores ignores = badUsage || rootDir == null || engine == null ? null : open(engine, new File(rootDir).getAbsolutePath());
+        if (ignores == null || (nonMatching && !verbose) || (verbose && !(ignores instanceof BaseGitIgnore))) {
+            System.err.println("usage: CheckIgnoreServer [--engine glob|jgit|walk|walk-lazy|adaptive] [-z] [-v [-n]] <repository root>");
+            System.err.println("       -v is only available for the glob and jgit engines");
+            System.exit(128);
+            return;
+        }
+
+        boolean anyIgnored = new CheckIgnoreServer(ignores, nulTerminated, verbose, nonMatching)
+                .serve(System.in, System.out);
+        System.exit(anyIgnored ? 0 : 1);
+    }
+
+    private static VcsIgnores open(String engine, String rootDir) {
+        switch (engine) {
+            case "glob": return GitIgnoresByGlob.fromRootDir(rootDir);
+            case "jgit": return GitIgnoresWithJGit.fromRootDir(rootDir);
+            case "walk": return GitIgnoresByWalkingFileSystem.fromRootDir(rootDir);
+            case "walk-lazy": return GitIgnoresByWalkingFileSystem.lazilyFromRootDir(rootDir);
+            case "adaptive": return AdaptiveVcsIgnores.fromRootDir(rootDir);
+            default: return null;
+        }
+    }
+
+    /**
+     * @return true if any path read was ignored
+     */
+    boolean serve(InputStream stdin, OutputStream stdout) throws IOException {
+        InputStream in = new BufferedInputStream(stdin, 64 * 1024);
+        OutputStream out = new BufferedOutputStream(stdout, 64 * 1024);
+        ByteArrayOutputStream pathBytes = new ByteArrayOutputStream(256);
+        byte delimiter = (byte) (nulTerminated ? 0 : '\n');
+        boolean anyIgnored = false;
+
+        int read;
+        while ((read = in.read()) != -1) {
+            if (read != delimiter) {
+                pathBytes.write(read);
+                continue;
+            }
+            anyIgnored |= answer(pathOf(pathBytes), out);
+            pathBytes.reset();
+            if (in.available() == 0) {
+                out.flush();
+            }
+        }
+        if (pathBytes.size() > 0) {
+            anyIgnored |= answer(pathOf(pathBytes), out);
+        }
+        out.flush();
+        return anyIgnored;
+    }
+
+    private String pathOf(ByteArrayOutputStream pathBytes) {
+        int length = pathBytes.size();
+        byte[] bytes = pathBytes.toByteArray();
+        if (!nulTerminated && length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, UTF_8);
+    }
+
+    private boolean answer(String path, OutputStream out) throws IOException {
+        if (path.isEmpty()) {
+            return false;
+        }
+        if (!verbose) {
+            boolean isIgnored = ignores.isIgnored(path);
+            if (isIgnored) {
+                write(out, path);
+                terminate(out);
+            }
+            return isIgnored;
+        }
+
+        IgnoreDecision decision = ((BaseGitIgnore) ignores).explain(path);
+        if (decision.hasDecidingRule()) {
+            String source = decision.source().isEmpty() ? ".gitignore" : decision.source() + "/.gitignore";
+            writeVerbose(out, source, String.valueOf(decision.rule() + 1), decision.definition(), path);
+        } else if (nonMatching) {
+            writeVerbose(out, "", "", "", path);
+        }
+        return decision.isIgnored();
+    }
+
+    private void writeVerbose(OutputStream out, String source, String line, String pattern, String path) throws IOException {
+        if (nulTerminated) {
+            write(out, source);
+            out.write(0);
+            write(out, line);
+            out.write(0);
+            write(out, pattern);
+            out.write(0);
+        } else {
+            write(out, source + ":" + line + ":" + pattern + "\t");
+        }
+        write(out, path);
+        terminate(out);
+    }
+
+    private void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(UTF_8));
+    }
+
+    private void terminate(OutputStream out) throws IOException {
+        out.write(nulTerminated ? 0 : '\n');
+    }
+}
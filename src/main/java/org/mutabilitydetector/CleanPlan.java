@@ -0,0 +1,437 @@
+package org.mutabilitydetector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds every ignored path of a working tree, the paths {@code git clean -ndX} would remove, as a plan for
+ * reclaiming disk space. A directory which is itself ignored is reported as a single entry, as nothing beneath it
+ * can be re-included, and is not listed at all unless the size of what it holds is wanted. So is a directory which
+ * turns out to hold nothing but ignored paths, as git clean removes it whole too.
+ * <p>
+ * Each directory is listed by its own task on the executor, so subtrees are walked in parallel. Every entry's
+ * attributes are read once, while listing its directory, which gives both whether it is a directory and, for sizes,
+ * its length. Directories internal to the repository and nested repositories are left alone, as git clean leaves
+ * them. Tracked files are not consulted, so an ignored path which is nonetheless tracked is reported too.
+ */
+public final class CleanPlan {
+
+    public static final class Entry {
+        private final String path;
+        private final boolean isDirectory;
+        private final long size;
+
+        Entry(String path, boolean isDirectory, long size) {
+            this.path = path;
+            this.isDirectory = isDirectory;
+            this.size = size;
+        }
+
+        /**
+         * @return the repository relative path, without a trailing slash for directories
+         */
+        public String path() {
+            return path;
+        }
+
+        public boolean isDirectory() {
+            return isDirectory;
+        }
+
+        /**
+         * @return the length of the file, or of every file beneath the directory, or -1 if sizes were not wanted
+         */
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Entry[path=%s, isDirectory=%s, size=%d]", path, isDirectory, size);
+        }
+    }
+
+    private static final Comparator<Entry> BY_PATH = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return a.path.compareTo(b.path);
+        }
+    };
+
+    private final BaseGitIgnore engine;
+    private final Path root;
+    private final boolean withSizes;
+    private final ExecutorService executor;
+
+    private final ConcurrentLinkedQueue<Found> found = new ConcurrentLinkedQueue<>();
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final AtomicInteger directoriesListed = new AtomicInteger();
+    private final AtomicInteger directoriesCollapsed = new AtomicInteger();
+    private final AtomicLong entriesRead = new AtomicLong();
+    private final AtomicInteger subtreesPruned = new AtomicInteger();
+    private final long startedAt = System.nanoTime();
+    private volatile long elapsedNanos;
+    private volatile boolean failed = false;
+    private volatile List<Entry> entries;
+
+    private CleanPlan(BaseGitIgnore engine, File rootDir, boolean withSizes, ExecutorService executor) {
+        this.engine = engine;
+        this.root = rootDir.toPath();
+        this.withSizes = withSizes;
+        this.executor = executor;
+    }
+
+    static CleanPlan start(BaseGitIgnore engine, File rootDir, boolean withSizes, ExecutorService executor) {
+        final CleanPlan plan = new CleanPlan(engine, rootDir, withSizes, executor);
+        final Listing root = new Listing(null, "");
+        root.keepsSomething = true;
+        executor.execute(new Runnable() {
+            @Override public void run() {
+                try {
+                    plan.list(root);
+                } finally {
+                    plan.finish(root);
+                }
+            }
+        });
+        return plan;
+    }
+
+    /**
+     * Lists a directory which is not ignored, reporting the entries which are, and submitting a task for each
+     * subdirectory which is not.
+     */
+    private void list(Listing directory) {
+        Map<String, Boolean> isDirectory = new LinkedHashMap<>();
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        if (!read(directory.path, isDirectory, sizes)) {
+            directory.keepsSomething = true;
+            return;
+        }
+        directoriesListed.incrementAndGet();
+        if (isDirectory.isEmpty()) {
+            directory.keepsSomething = true;
+            return;
+        }
+
+        String prefix = directory.path.isEmpty() ? "" : directory.path + "/";
+        Set<String> ignored = new HashSet<>(engine.ignored(directory.path, isDirectory));
+        if (ignored.size() < isDirectory.size()) {
+            for (Map.Entry<String, Boolean> entry: isDirectory.entrySet()) {
+                if (!entry.getValue() && !ignored.contains(entry.getKey())) {
+                    directory.keepsSomething = true;
+                    break;
+                }
+            }
+        }
+
+        for (Map.Entry<String, Boolean> entry: isDirectory.entrySet()) {
+            String path = prefix + entry.getKey();
+            if (!entry.getValue()) {
+                if (ignored.contains(entry.getKey())) {
+                    add(directory, new Found(path, false, withSizes ? sizes.get(entry.getKey()) : -1));
+                }
+                continue;
+            }
+            RepositoryFile child = engine.rootDirectory.fromPath(path);
+            if (child.isInternal() || child.isNestedRepository()) {
+                directory.keepsSomething = true;
+            } else if (ignored.contains(entry.getKey())) {
+                Found subtree = new Found(path, true, withSizes ? 0 : -1);
+                add(directory, subtree);
+                if (withSizes) {
+                    submitSize(directory, subtree, path);
+                } else {
+                    subtreesPruned.incrementAndGet();
+                }
+            } else {
+                submitList(new Listing(directory, path));
+            }
+        }
+    }
+
+    /**
+     * Adds up the length of every file beneath an ignored directory, a task for each directory.
+     */
+    private void size(Listing owner, Found subtree, String directory) {
+        Map<String, Boolean> isDirectory = new LinkedHashMap<>();
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        if (!read(directory, isDirectory, sizes)) {
+            return;
+        }
+        long total = 0;
+        for (Long size: sizes.values()) {
+            total += size;
+        }
+        subtree.size.addAndGet(total);
+        for (Map.Entry<String, Boolean> entry: isDirectory.entrySet()) {
+            if (entry.getValue()) {
+                submitSize(owner, subtree, directory + "/" + entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Reads the attributes of each entry of a directory once, without following links.
+     *
+     * @return false if the directory could not be listed
+     */
+    private boolean read(String directory, Map<String, Boolean> isDirectory, Map<String, Long> sizes) {
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory.isEmpty() ? root : root.resolve(directory))) {
+            for (Path child: children) {
+                BasicFileAttributes attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                String name = child.getFileName().toString();
+                isDirectory.put(name, attributes.isDirectory());
+                if (!attributes.isDirectory()) {
+                    sizes.put(name, attributes.size());
+                }
+            }
+        } catch (IOException e) {
+            failed = true;
+            return false;
+        }
+        entriesRead.addAndGet(isDirectory.size());
+        return true;
+    }
+
+    /**
+     * Holds an ignored path in its directory while the directory might yet turn out to hold nothing else, otherwise
+     * reports it straight away.
+     */
+    private void add(Listing directory, Found ignored) {
+        if (directory.keepsSomething) {
+            found.add(ignored);
+        } else {
+            directory.found.add(ignored);
+        }
+    }
+
+    private void submitList(final Listing directory) {
+        directory.parent.pending.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override public void run() {
+                try {
+                    list(directory);
+                } finally {
+                    finish(directory);
+                }
+            }
+        });
+    }
+
+    private void submitSize(final Listing owner, final Found subtree, final String directory) {
+        owner.pending.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override public void run() {
+                try {
+                    size(owner, subtree, directory);
+                } finally {
+                    finish(owner);
+                }
+            }
+        });
+    }
+
+    /**
+     * Once a directory and everything beneath it has been listed, and sized, replaces what it holds with the
+     * directory itself if every entry was ignored, as git clean removes such a directory whole. Otherwise its
+     * ignored paths are reported, and its parent keeps something too.
+     */
+    private void finish(Listing directory) {
+        if (directory.pending.decrementAndGet() > 0) {
+            return;
+        }
+        Listing parent = directory.parent;
+        if (parent == null) {
+            publish();
+            return;
+        }
+        if (!directory.keepsSomething) {
+            long size = withSizes ? 0 : -1;
+            for (Found each: directory.found) {
+                size += withSizes ? each.size.get() : 0;
+            }
+            directoriesCollapsed.incrementAndGet();
+            add(parent, new Found(directory.path, true, size));
+        } else {
+            parent.keepsSomething = true;
+            for (Found each: directory.found) {
+                add(parent, each);
+            }
+        }
+        finish(parent);
+    }
+
+    private void publish() {
+        List<Entry> sorted = new ArrayList<>(found.size());
+        for (Found each: found) {
+            sorted.add(new Entry(each.path, each.isDirectory, each.size.get()));
+        }
+        Collections.sort(sorted, BY_PATH);
+        entries = Collections.unmodifiableList(sorted);
+        found.clear();
+        elapsedNanos = System.nanoTime() - startedAt;
+        if (IgnoreEvents.isEnabled()) {
+            IgnoreEvents.walk(root.toString(), entriesRead.get(), subtreesPruned.get(), elapsedNanos);
+        }
+        ready.countDown();
+    }
+
+    public boolean isReady() {
+        return ready.getCount() == 0;
+    }
+
+    public void awaitReady() throws InterruptedException {
+        ready.await();
+    }
+
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.await(timeout, unit);
+    }
+
+    /**
+     * @return false if some directory could not be listed, in which case ignored paths beneath it are missing, and
+     * sizes may be short
+     */
+    public boolean isComplete() {
+        return isReady() && !failed;
+    }
+
+    /**
+     * @return every ignored path, with no path beneath an ignored directory, in ascending order of path
+     * @throws IllegalStateException if the plan is not ready yet
+     */
+    public List<Entry> entries() {
+        List<Entry> result = entries;
+        if (result == null) {
+            throw new IllegalStateException("Clean plan is not ready yet");
+        }
+        return result;
+    }
+
+    /**
+     * @return the sum of the sizes of every entry, or -1 if sizes were not wanted
+     */
+    public long totalBytes() {
+        if (!withSizes) {
+            return -1;
+        }
+        long total = 0;
+        for (Entry entry: entries()) {
+            total += entry.size;
+        }
+        return total;
+    }
+
+    /**
+     * @return how many directories which are not ignored were listed, counting the root
+     */
+    public int directoriesListed() {
+        return directoriesListed.get();
+    }
+
+    /**
+     * @return how many entries were read, each with one read of its attributes
+     */
+    public long entriesRead() {
+        return entriesRead.get();
+    }
+
+    /**
+     * @return how many directories which are not ignored were reported as a single entry, as everything in them is
+     */
+    public int directoriesCollapsed() {
+        return directoriesCollapsed.get();
+    }
+
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CleanPlan[ready=%s, complete=%s, directoriesListed=%d, directoriesCollapsed=%d, entriesRead=%d, elapsed=%.1fms]",
+                isReady(), isComplete(), directoriesListed(), directoriesCollapsed(), entriesRead(), elapsedNanos / 1e6);
+    }
+
+    /**
+     * Prints the paths which would be removed, as {@code git clean -ndX} does, or with {@code --sizes}, the size of
+     * each before its path, matching rules with {@link GitIgnoresByGlob}:
+     * <pre>
+     *   java org.mutabilitydetector.CleanPlan &lt;repository root&gt; [--sizes]
+     * </pre>
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length < 1 || args.length > 2 || (args.length == 2 && !args[1].equals("--sizes"))) {
+            System.err.println("usage: CleanPlan <repository root> [--sizes]");
+            System.exit(128);
+        }
+        boolean withSizes = args.length == 2;
+        File rootDir = new File(args[0]).getAbsoluteFile();
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            CleanPlan plan = GitIgnoresByGlob.fromRootDir(rootDir.getPath()).planClean(rootDir, withSizes, executor);
+            plan.awaitReady();
+            PrintStream out = new PrintStream(System.out, false, "UTF-8");
+            for (Entry entry: plan.entries()) {
+                String path = entry.isDirectory ? entry.path + "/" : entry.path;
+                out.println(withSizes ? entry.size + "\t" + path : "Would remove " + path);
+            }
+            out.flush();
+            if (!plan.isComplete()) {
+                System.err.println("warning: some directories could not be listed");
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * A directory which is not ignored, finished once it and every task beneath it are done.
+     */
+    private static final class Listing {
+        final Listing parent;
+        final String path;
+        final AtomicInteger pending = new AtomicInteger(1);
+        final ConcurrentLinkedQueue<Found> found = new ConcurrentLinkedQueue<>();
+        volatile boolean keepsSomething;
+
+        Listing(Listing parent, String path) {
+            this.parent = parent;
+            this.path = path;
+        }
+    }
+
+    private static final class Found {
+        final String path;
+        final boolean isDirectory;
+        final AtomicLong size;
+
+        Found(String path, boolean isDirectory, long size) {
+            this.path = path;
+            this.isDirectory = isDirectory;
+            this.size = new AtomicLong(size);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.mutabilitydetector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.mutabilitydetector.IgnoreRuleMatch.IS_IGNORED;
+
+/**
+ * The lines of a .gitattributes file, their patterns compiled by the same engine, and cached in the same way, as
+ * the rules of .gitignore files.
+ */
+final class CompiledAttributes implements CompiledIgnoreRules {
+
+    private final CompiledIgnoreRules patterns;
+    private final List<Map<String, String>> assignments;
+    private final String[] definitions;
+
+    private CompiledAttributes(CompiledIgnoreRules patterns, List<Map<String, String>> assignments, String[] definitions) {
+        this.patterns = patterns;
+        this.assignments = assignments;
+        this.definitions = definitions;
+    }
+
+    static CompiledAttributes compile(BaseGitIgnore compiler, List<IgnoreRule> rules) {
+        List<IgnoreRule> patterns = new ArrayList<>(rules.size());
+        List<Map<String, String>> assignments = new ArrayList<>(rules.size());
+        String[] definitions = new String[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            IgnoreRule rule = rules.get(i);
+            if (rule instanceof GitAttributeRule) {
+                patterns.add(((GitAttributeRule) rule).pattern());
+                assignments.add(((GitAttributeRule) rule).assignments());
+            } else {
+                patterns.add(rule);
+                assignments.add(Collections.<String, String>emptyMap());
+            }
+            definitions[i] = rule.definition();
+        }
+        return new CompiledAttributes(compiler.compile(patterns), assignments, definitions);
+    }
+
+    /**
+     * Adds the attributes these lines assign to the path, for each attribute not already resolved by a file closer
+     * to the path. Later lines take precedence over earlier ones.
+     *
+     * @param path relative to the directory containing the .gitattributes file
+     */
+    void resolve(String path, boolean isDirectory, Map<String, String> resolved) {
+        for (int i = definitions.length - 1; i >= 0; i--) {
+            Map<String, String> assigned = assignments.get(i);
+            if (assigned.isEmpty() || !patterns.matches(i, path, isDirectory)) {
+                continue;
+            }
+            for (Map.Entry<String, String> assignment: assigned.entrySet()) {
+                if (!resolved.containsKey(assignment.getKey())) {
+                    resolved.put(assignment.getKey(), assignment.getValue());
+                    GitAttributeRule.expandMacro(assignment.getKey(), assignment.getValue(), resolved);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int lastMatchingRule(String path, boolean isDirectory) {
+        return patterns.lastMatchingRule(path, isDirectory);
+    }
+
+    @Override
+    public boolean matches(int rule, String path, boolean isDirectory) {
+        return patterns.matches(rule, path, isDirectory);
+    }
+
+    @Override
+    public IgnoreRuleMatch resultOf(int rule) {
+        return IS_IGNORED;
+    }
+
+    @Override
+    public String definition(int rule) {
+        return definitions[rule];
+    }
+
+    @Override
+    public int ruleCount() {
+        return definitions.length;
+    }
+}
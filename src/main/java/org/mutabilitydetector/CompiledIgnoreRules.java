@@ -0,0 +1,25 @@
+package org.mutabilitydetector;
+
+/**
+ * The rules of a single .gitignore file, prepared once so they can be evaluated repeatedly.
+ * <p>
+ * Rules are identified by their index, which is their line in the .gitignore file, counting from zero.
+ */
+public interface CompiledIgnoreRules {
+    /**
+     * @return the index of the last rule which matches the path, or -1 if no rule matches. The path is relative
+     * to the directory containing the .gitignore file.
+     */
+    int lastMatchingRule(String path, boolean isDirectory);
+
+    /**
+     * @return true if the given rule matches the path, whether or not a later rule matches it too
+     */
+    boolean matches(int rule, String path, boolean isDirectory);
+
+    IgnoreRuleMatch resultOf(int rule);
+
+    String definition(int rule);
+
+    int ruleCount();
+}
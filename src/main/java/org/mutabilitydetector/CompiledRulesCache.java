@@ -0,0 +1,216 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiled .gitignore and .gitattributes files, keyed by the id of the blob they were read from, the engine which
+ * compiled them, whether it folds case, and which kind of file they are.
+ * <p>
+ * Sharing one cache between engines for different commits of a repository means each distinct version of a
+ * .gitignore file is compiled once, however many commits it appears in. Entries record when they were last used, so
+ * that {@link #trimTo(long)} drops the least recently used first.
+ */
+public final class CompiledRulesCache {
+
+    private final ConcurrentMap<Key, Entry> compiled = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong estimatedBytes = new AtomicLong();
+
+    private static final int RULES_OVERHEAD_BYTES = 64;
+    private static final int RULE_OVERHEAD_BYTES = 160;
+
+    CompiledIgnoreRules get(BaseGitIgnore compiler, AnyObjectId contentId) {
+        return get(compiler, contentId, false);
+    }
+
+    void put(BaseGitIgnore compiler, AnyObjectId contentId, CompiledIgnoreRules rules) {
+        put(compiler, contentId, false, rules);
+    }
+
+    /**
+     * @param attributes true for the compiled form of a .gitattributes file, which differs from that of a .gitignore
+     * file with the same content
+     */
+    CompiledIgnoreRules get(BaseGitIgnore compiler, AnyObjectId contentId, boolean attributes) {
+        Entry entry = compiled.get(new Key(compiler.getClass(), compiler.isIgnoreCase(), contentId, attributes));
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        entry.lastUsedNanos = System.nanoTime();
+        return entry.rules;
+    }
+
+    void put(BaseGitIgnore compiler, AnyObjectId contentId, boolean attributes, CompiledIgnoreRules rules) {
+        Entry entry = new Entry(rules);
+        if (compiled.putIfAbsent(new Key(compiler.getClass(), compiler.isIgnoreCase(), contentId.copy(), attributes), entry) == null) {
+            estimatedBytes.addAndGet(entry.bytes);
+        }
+    }
+
+    /**
+     * Drops every compiled rule set. Engines keep using the rules they have already loaded, only later loads will
+     * compile again.
+     */
+    public void clear() {
+        trimTo(0);
+    }
+
+    /**
+     * Drops compiled rule sets, least recently used first, until the estimated size is within the given number of
+     * bytes. As with {@link #clear()}, engines keep the rules they have already loaded.
+     *
+     * @return the number of rule sets dropped
+     */
+    public int trimTo(long bytes) {
+        return trimTo(bytes, Collections.<CompiledIgnoreRules>emptySet());
+    }
+
+    /**
+     * As {@link #trimTo(long)}, keeping the rule sets in use, which dropping would not free as long as their users
+     * hold on to them.
+     *
+     * @param inUse compared by identity
+     */
+    int trimTo(long bytes, Collection<CompiledIgnoreRules> inUse) {
+        Set<CompiledIgnoreRules> kept = identitySetOf(inUse);
+        if (estimatedBytes.get() <= bytes) {
+            return 0;
+        }
+        List<Map.Entry<Key, Entry>> leastRecentlyUsedFirst = new ArrayList<>(compiled.entrySet());
+        Collections.sort(leastRecentlyUsedFirst, new Comparator<Map.Entry<Key, Entry>>() {
+            @Override public int compare(Map.Entry<Key, Entry> one, Map.Entry<Key, Entry> other) {
+                return Long.compare(one.getValue().lastUsedNanos - other.getValue().lastUsedNanos, 0);
+            }
+        });
+        int dropped = 0;
+        for (Map.Entry<Key, Entry> entry: leastRecentlyUsedFirst) {
+            if (estimatedBytes.get() <= bytes) {
+                break;
+            }
+            if (!kept.contains(entry.getValue().rules) && compiled.remove(entry.getKey(), entry.getValue())) {
+                estimatedBytes.addAndGet(-entry.getValue().bytes);
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * @return a rough size of the compiled rules held, counting the rule definitions, a fixed overhead per rule and
+     * the copies a compiled form keeps for lookups from several threads
+     */
+    public long estimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    /**
+     * @return as {@link #estimatedBytes()}, adding the rule sets in use which this cache no longer holds, so that
+     * rules shared through the cache are counted once, and still counted after being dropped from it
+     * @param inUse compared by identity
+     */
+    long estimatedBytesWith(Collection<CompiledIgnoreRules> inUse) {
+        Set<CompiledIgnoreRules> cached = Collections.newSetFromMap(new IdentityHashMap<CompiledIgnoreRules, Boolean>());
+        for (Entry entry: compiled.values()) {
+            cached.add(entry.rules);
+        }
+        long estimate = estimatedBytes.get();
+        for (CompiledIgnoreRules rules: identitySetOf(inUse)) {
+            if (!cached.contains(rules)) {
+                estimate += estimatedBytes(rules);
+            }
+        }
+        return estimate;
+    }
+
+    private static Set<CompiledIgnoreRules> identitySetOf(Collection<CompiledIgnoreRules> rules) {
+        Set<CompiledIgnoreRules> set = Collections.newSetFromMap(new IdentityHashMap<CompiledIgnoreRules, Boolean>());
+        set.addAll(rules);
+        return set;
+    }
+
+    static long estimatedBytes(CompiledIgnoreRules rules) {
+        long size = RULES_OVERHEAD_BYTES;
+        for (int i = 0; i < rules.ruleCount(); i++) {
+            size += RULE_OVERHEAD_BYTES + 2L * rules.definition(i).length();
+        }
+        CompiledIgnoreRules evaluated = RuleSetOptimizer.evaluated(rules);
+        if (evaluated instanceof RetainedSize) {
+            size += ((RetainedSize) evaluated).estimatedRetainedBytes();
+        }
+        return size;
+    }
+
+    public int size() {
+        return compiled.size();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompiledRulesCache[size=%d, hits=%d, misses=%d]", size(), hits(), misses());
+    }
+
+    private static final class Entry {
+        final CompiledIgnoreRules rules;
+        final long bytes;
+        volatile long lastUsedNanos = System.nanoTime();
+
+        Entry(CompiledIgnoreRules rules) {
+            this.rules = rules;
+            this.bytes = estimatedBytes(rules);
+        }
+    }
+
+    private static final class Key {
+        private final Class<?> engine;
+        private final boolean ignoreCase;
+        private final AnyObjectId contentId;
+        private final boolean attributes;
+
+        Key(Class<?> engine, boolean ignoreCase, AnyObjectId contentId, boolean attributes) {
+            this.engine = engine;
+            this.ignoreCase = ignoreCase;
+            this.contentId = contentId;
+            this.attributes = attributes;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return engine == other.engine
+                    && ignoreCase == other.ignoreCase
+                    && attributes == other.attributes
+                    && contentId.equals(other.contentId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * engine.hashCode() + contentId.hashCode()) + (ignoreCase ? 2 : 0) + (attributes ? 1 : 0);
+        }
+    }
+}
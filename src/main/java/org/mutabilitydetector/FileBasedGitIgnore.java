@@ -1,16 +1,27 @@
 package org.mutabilitydetector;
 
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.util.FS;
 import org.mutabilitydetector.GitIgnoresByGlob.GitIgnoreRule;
 
 import java.io.BufferedReader;
-import java.io.Closeable;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public final class FileBasedGitIgnore {
@@ -41,6 +52,11 @@ public final class FileBasedGitIgnore {
             return new GitIgnoreRules(new File(file, ".gitignore"));
         }
 
+        @Override
+        public IgnoreRules getAttributeRules() {
+            return GitIgnoreRules.attributes(new File(file, GitAttributeRule.FILENAME));
+        }
+
         @Override
         public String getRepositoryRelativePath() {
             return rootDirectory.toURI().relativize(file.toURI()).getPath();
@@ -63,11 +79,40 @@ public final class FileBasedGitIgnore {
 
         @Override
         public boolean isInternal() {
-            String relativePath = getRepositoryRelativePath();
-            return relativePath.equals(".git") || relativePath.startsWith(".git/");
+            return FileBasedGitIgnore.isInternal(getRepositoryRelativePath());
+        }
+
+        @Override
+        public boolean isNestedRepository() {
+            return FileBasedGitIgnore.isNestedRepository(file);
         }
     }
 
+    /**
+     * @return true if the path is, or is inside, the .git directory of the repository or of any nested repository,
+     * or a submodule's .git file.
+     */
+    static boolean isInternal(String relativePath) {
+        return relativePath.equals(".git")
+            || relativePath.startsWith(".git/")
+            || relativePath.endsWith("/.git")
+            || relativePath.contains("/.git/");
+    }
+
+    /**
+     * JGit has no constant for the key, nor applies the setting to its own ignore rules.
+     */
+    static boolean isIgnoreCase(Config config) {
+        return config.getBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, "ignorecase", false);
+    }
+
+    /**
+     * A nested checkout has a .git directory, a submodule's working tree a .git file pointing at its directory.
+     */
+    static boolean isNestedRepository(File directory) {
+        return new File(directory, Constants.DOT_GIT).exists();
+    }
+
     public static final class GitRepositoryRoot extends GitRepositoryFile implements RepositoryRoot {
 
         public GitRepositoryRoot(File rootDirectory) {
@@ -79,6 +124,36 @@ public final class FileBasedGitIgnore {
             return new GitRepositoryFile(new File(file, path), this.file);
         }
 
+        /**
+         * Reads the repository's own config file only, a missing or unreadable one leaves rules case sensitive. The
+         * git directory of a submodule or linked work tree is found through its .git file, and a linked work tree's
+         * config is that of the repository it belongs to.
+         */
+        @Override
+        public boolean isIgnoreCase() {
+            try {
+                File gitDir = new FileRepositoryBuilder().setWorkTree(file).setup().getGitDir();
+                FileBasedConfig config = new FileBasedConfig(new File(commonDirectory(gitDir), Constants.CONFIG), FS.DETECTED);
+                config.load();
+                return FileBasedGitIgnore.isIgnoreCase(config);
+            } catch (IOException | ConfigInvalidException e) {
+                return false;
+            }
+        }
+
+        /**
+         * JGit knows nothing of linked work trees, whose git directory names the one they share in its commondir file.
+         */
+        private static File commonDirectory(File gitDir) throws IOException {
+            File commonDir = new File(gitDir, "commondir");
+            if (!commonDir.isFile()) {
+                return gitDir;
+            }
+            String path = new String(Files.readAllBytes(commonDir.toPath()), Charset.forName("UTF-8")).trim();
+            File common = new File(path);
+            return common.isAbsolute() ? common : new File(gitDir, path);
+        }
+
         @Override
         public boolean isRoot() {
             return true;
@@ -93,14 +168,36 @@ public final class FileBasedGitIgnore {
         public boolean isInternal() {
             return false;
         }
+
+        @Override
+        public boolean isNestedRepository() {
+            return false;
+        }
     }
 
     public static final class GitIgnoreRules implements IgnoreRules {
 
+        private static final long RACY_MILLIS = 2000;
+
         private final File dotGitignoreFile;
+        private final boolean attributes;
+        private byte[] content;
+        private Object changeStamp;
 
         public GitIgnoreRules(File dotGitignoreFile) {
+            this(dotGitignoreFile, false);
+        }
+
+        private GitIgnoreRules(File dotGitignoreFile, boolean attributes) {
             this.dotGitignoreFile = dotGitignoreFile;
+            this.attributes = attributes;
+        }
+
+        /**
+         * Reads a .gitattributes file, with the same caching of its content and id as a .gitignore file.
+         */
+        static GitIgnoreRules attributes(File dotGitattributesFile) {
+            return new GitIgnoreRules(dotGitattributesFile, true);
         }
 
         @Override
@@ -110,18 +207,58 @@ public final class FileBasedGitIgnore {
 
         @Override
         public List<IgnoreRule> rules() throws FailedToRetrieveIgnoreRules {
-            InputStream in = null;
             try {
-                in = new FileInputStream(dotGitignoreFile);
-                return ignoreEntries(in);
+                InputStream input = new ByteArrayInputStream(content());
+                return attributes ? GitAttributeRule.attributeEntries(input) : ignoreEntries(input);
             } catch (IOException e) {
                 throw new FailedToRetrieveIgnoreRules(e);
-            } finally {
-                closeQuietly(in);
             }
         }
 
-        private static List<IgnoreRule> ignoreEntries(InputStream input) throws IOException {
+        /**
+         * @return the id git would give the file's content as a blob, or null if it cannot be read.
+         */
+        @Override
+        public ObjectId contentId() {
+            try {
+                return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, content());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        /**
+         * The modification time and size of the file, as git's index keeps them, taken before its content is read so
+         * that a change made while reading shows. A file changed within a couple of seconds of being stamped could
+         * change again without its modification time moving, so it gets no stamp, and is compared by content.
+         */
+        @Override
+        public Object changeStamp() {
+            if (content == null) {
+                return stat();
+            }
+            return changeStamp;
+        }
+
+        private Object stat() {
+            try {
+                BasicFileAttributes stat = Files.readAttributes(dotGitignoreFile.toPath(), BasicFileAttributes.class);
+                long modified = stat.lastModifiedTime().toMillis();
+                return System.currentTimeMillis() - modified < RACY_MILLIS ? null : Arrays.asList(modified, stat.size());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private byte[] content() throws IOException {
+            if (content == null) {
+                changeStamp = stat();
+                content = Files.readAllBytes(dotGitignoreFile.toPath());
+            }
+            return content;
+        }
+
+        static List<IgnoreRule> ignoreEntries(InputStream input) throws IOException {
             BufferedReader br = new BufferedReader(new InputStreamReader(input, Charset.forName("UTF-8")));
             List<IgnoreRule> rules = new ArrayList<IgnoreRule>();
             String text;
@@ -130,16 +267,6 @@ public final class FileBasedGitIgnore {
             }
             return rules;
         }
-
-        private void closeQuietly(Closeable closeable) {
-            try {
-                if (closeable != null) {
-                    closeable.close();
-                }
-            } catch (IOException e) {
-                // Ignore, as with Apache Commons IOUtils.closeQuietly.
-            }
-        }
     }
 
 
@@ -0,0 +1,133 @@
+package org.mutabilitydetector;
+
+import org.mutabilitydetector.GitIgnoresByGlob.GitIgnoreRule;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A line of a .gitattributes file: a pattern, and the attributes it assigns to the paths it matches.
+ * <p>
+ * Patterns are matched as in .gitignore files, except that negative patterns, and patterns ending in a slash, match
+ * nothing, as in git. Macro definitions ({@code [attr]name ...}) are not supported and match nothing, apart from the
+ * built in {@code binary} macro.
+ */
+public final class GitAttributeRule implements IgnoreRule {
+
+    /**
+     * The value of an attribute set by its bare name, as in {@code git check-attr}.
+     */
+    public static final String SET = "set";
+
+    /**
+     * The value of an attribute unset by {@code -name}.
+     */
+    public static final String UNSET = "unset";
+
+    /**
+     * The value of an attribute returned to its unspecified state by {@code !name}. Resolved attributes never have
+     * this value, the attribute is left out instead.
+     */
+    static final String UNSPECIFIED = "unspecified";
+
+    static final String FILENAME = ".gitattributes";
+
+    private static final String MATCHES_NOTHING = "";
+
+    private final String definition;
+    private final GitIgnoreRule pattern;
+    private final Map<String, String> assignments;
+
+    GitAttributeRule(String line) {
+        this.definition = line;
+        String[] tokens = line.trim().split("\\s+");
+        String patternToken = tokens[0];
+        boolean usable = !patternToken.isEmpty()
+                && !patternToken.startsWith("#")
+                && !patternToken.startsWith("[attr]")
+                && !patternToken.startsWith("!")
+                && !patternToken.endsWith("/");
+        this.pattern = new GitIgnoreRule(usable ? patternToken : MATCHES_NOTHING);
+
+        Map<String, String> assignments = new LinkedHashMap<>();
+        if (usable) {
+            for (int i = 1; i < tokens.length; i++) {
+                assign(tokens[i], assignments);
+            }
+        }
+        this.assignments = Collections.unmodifiableMap(assignments);
+    }
+
+    private static void assign(String token, Map<String, String> assignments) {
+        if (token.startsWith("-")) {
+            assignments.put(token.substring(1), UNSET);
+        } else if (token.startsWith("!")) {
+            assignments.put(token.substring(1), UNSPECIFIED);
+        } else if (token.contains("=")) {
+            int equals = token.indexOf('=');
+            assignments.put(token.substring(0, equals), token.substring(equals + 1));
+        } else {
+            assignments.put(token, SET);
+        }
+    }
+
+    /**
+     * Resolves the attributes of the built in {@code binary} macro, which like any macro only takes effect where the
+     * macro itself resolves as set, and only for attributes not already resolved.
+     */
+    static void expandMacro(String attribute, String value, Map<String, String> resolved) {
+        if (attribute.equals("binary") && value.equals(SET)) {
+            for (String unset: new String[] { "diff", "merge", "text" }) {
+                if (!resolved.containsKey(unset)) {
+                    resolved.put(unset, UNSET);
+                }
+            }
+        }
+    }
+
+    static List<IgnoreRule> attributeEntries(InputStream input) throws IOException {
+        BufferedReader br = new BufferedReader(new InputStreamReader(input, Charset.forName("UTF-8")));
+        List<IgnoreRule> rules = new ArrayList<IgnoreRule>();
+        String text;
+        while ((text = br.readLine()) != null) {
+            rules.add(new GitAttributeRule(text));
+        }
+        return rules;
+    }
+
+    /**
+     * @return the pattern alone, as a rule any engine can compile. Lines which match nothing give a blank line.
+     */
+    IgnoreRule pattern() {
+        return pattern;
+    }
+
+    Map<String, String> assignments() {
+        return assignments;
+    }
+
+    @Override
+    public String definition() {
+        return definition;
+    }
+
+    @Override
+    public IgnoreRuleMatch check(String path, boolean isDirectory) {
+        return pattern.check(path, isDirectory) == IgnoreRuleMatch.DOES_NOT_MATCH
+                ? IgnoreRuleMatch.DOES_NOT_MATCH
+                : IgnoreRuleMatch.IS_IGNORED;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GitAttributeRule[pattern=%s, assignments=%s]", pattern.definition(), assignments);
+    }
+}
@@ -1,16 +1,12 @@
 package org.mutabilitydetector;
 
 
-import org.mutabilitydetector.IgnoreRules.FailedToRetrieveIgnoreRules;
-
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Deque;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.regex.Pattern;
 
 import static org.mutabilitydetector.IgnoreRuleMatch.DOES_NOT_MATCH;
+import static org.mutabilitydetector.IgnoreRuleMatch.IS_IGNORED;
 import static org.mutabilitydetector.IgnoreRuleMatch.IS_NOT_IGNORED;
 
 public class GitIgnoresByGlob extends BaseGitIgnore {
@@ -19,49 +15,126 @@ public class GitIgnoresByGlob extends BaseGitIgnore {
         super(rootDirectory);
     }
 
-    public static VcsIgnores fromRootDir(String absolutePath) {
-        return new GitIgnoresByGlob(FileBasedGitIgnore.root(new File(absolutePath)));
+    public GitIgnoresByGlob(RepositoryRoot rootDirectory, CompiledRulesCache rulesCache) {
+        super(rootDirectory, rulesCache);
     }
 
-    protected IgnoreRuleMatch getMatchResult(String pathToCheck, IgnoreRules currentGitIgnore, boolean isDirectory) {
-        try {
-            List<IgnoreRule> ignoreEntries = currentGitIgnore.rules();
-            List<IgnoreRuleMatch> allResults = getAllResults(pathToCheck, isDirectory, ignoreEntries);
+    public static GitIgnoresByGlob fromRootDir(String absolutePath) {
+        return new GitIgnoresByGlob(FileBasedGitIgnore.root(new File(absolutePath)));
+    }
 
-            System.out.println(pathToCheck);
-            System.out.println(ignoreEntries);
-            System.out.println(allResults);
+    @Override
+    protected CompiledIgnoreRules compile(List<IgnoreRule> rules) {
+        return new GlobRules(rules, isIgnoreCase());
+    }
 
-            return getLastRelevantResult(allResults);
-        } catch (FailedToRetrieveIgnoreRules e) {
-            return IS_NOT_IGNORED;
+    /**
+     * @return how many glob rules, of the .gitignore files loaded so far, have had their matcher compiled
+     */
+    public int globsCompiled() {
+        int compiled = 0;
+        for (CompiledIgnoreRules loaded: loadedRules()) {
+            CompiledIgnoreRules rules = RuleSetOptimizer.evaluated(loaded);
+            if (rules instanceof GlobRules) {
+                compiled += ((GlobRules) rules).globsCompiled();
+            }
         }
+        return compiled;
     }
 
-    private List<IgnoreRuleMatch> getAllResults(String pathToCheck, boolean isDirectory, List<IgnoreRule> ignoreEntries) {
-        List<IgnoreRuleMatch> allResults = new ArrayList<>();
-        for (IgnoreRule rule: ignoreEntries) {
-            allResults.add(rule.check(pathToCheck, isDirectory));
+    /**
+     * @return how many glob rules, of the .gitignore files loaded so far, have never been reached by evaluation, so
+     * have never been compiled
+     */
+    public int globsNeverCompiled() {
+        int neverCompiled = 0;
+        for (CompiledIgnoreRules loaded: loadedRules()) {
+            CompiledIgnoreRules rules = RuleSetOptimizer.evaluated(loaded);
+            if (rules instanceof GlobRules) {
+                neverCompiled += ((GlobRules) rules).globsNeverCompiled();
+            }
         }
-        return allResults;
+        return neverCompiled;
     }
 
-    private IgnoreRuleMatch getLastRelevantResult(List<IgnoreRuleMatch> allResults) {
-        Deque<IgnoreRuleMatch> relevantResults = new LinkedList<>();
+    static final class GlobRules implements CompiledIgnoreRules {
 
-        for (IgnoreRuleMatch result: allResults) {
-            switch (result) {
-                case IS_IGNORED:
-                case IS_NOT_IGNORED:
-                    relevantResults.add(result);
-                    break;
-                case DOES_NOT_MATCH:
-                default:
-                    // Filter out
+        private final IgnoreRule[] rules;
+
+        GlobRules(List<IgnoreRule> rules) {
+            this(rules, false);
+        }
+
+        /**
+         * @param ignoreCase fold the patterns of glob rules once, here, rather than the case of every path looked up
+         */
+        GlobRules(List<IgnoreRule> rules, boolean ignoreCase) {
+            this.rules = new IgnoreRule[rules.size()];
+            for (int i = 0; i < this.rules.length; i++) {
+                IgnoreRule rule = rules.get(i);
+                this.rules[i] = ignoreCase && rule instanceof GitIgnoreRule ? ((GitIgnoreRule) rule).ignoringCase() : rule;
             }
         }
 
-        return relevantResults.isEmpty() ? DOES_NOT_MATCH : relevantResults.getLast();
+        @Override
+        public int lastMatchingRule(String path, boolean isDirectory) {
+            for (int i = rules.length - 1; i >= 0; i--) {
+                if (rules[i].check(path, isDirectory) != DOES_NOT_MATCH) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean matches(int rule, String path, boolean isDirectory) {
+            return rules[rule].check(path, isDirectory) != DOES_NOT_MATCH;
+        }
+
+        @Override
+        public IgnoreRuleMatch resultOf(int rule) {
+            IgnoreRule ignoreRule = rules[rule];
+            boolean isNegated = ignoreRule instanceof GitIgnoreRule
+                    ? ((GitIgnoreRule) ignoreRule).isNegated()
+                    : ignoreRule.definition().startsWith("!");
+            return isNegated ? IS_NOT_IGNORED : IS_IGNORED;
+        }
+
+        @Override
+        public String definition(int rule) {
+            return rules[rule].definition();
+        }
+
+        @Override
+        public int ruleCount() {
+            return rules.length;
+        }
+
+        /**
+         * @return how many glob rules have had their matcher compiled, because evaluation has reached them
+         */
+        int globsCompiled() {
+            int compiled = 0;
+            for (IgnoreRule rule: rules) {
+                if (rule instanceof GitIgnoreRule && ((GitIgnoreRule) rule).isGlob && ((GitIgnoreRule) rule).isCompiled()) {
+                    compiled++;
+                }
+            }
+            return compiled;
+        }
+
+        /**
+         * @return how many glob rules have never been reached by evaluation, so their matcher was never compiled
+         */
+        int globsNeverCompiled() {
+            int neverCompiled = 0;
+            for (IgnoreRule rule: rules) {
+                if (rule instanceof GitIgnoreRule && ((GitIgnoreRule) rule).isGlob && !((GitIgnoreRule) rule).isCompiled()) {
+                    neverCompiled++;
+                }
+            }
+            return neverCompiled;
+        }
     }
 
 
@@ -83,6 +156,31 @@ public class GitIgnoresByGlob extends BaseGitIgnore {
         }
     }
 
+    /**
+     * Matches a glob with a single {@code *}, and nothing else special, by its literal prefix and suffix, as the
+     * regular expression would.
+     */
+    static final class PrefixSuffixMatcher implements GitIgnoreMatcher {
+
+        private final String prefix;
+        private final String suffix;
+        private final boolean ignoreCase;
+
+        PrefixSuffixMatcher(String prefix, String suffix, boolean ignoreCase) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.ignoreCase = ignoreCase;
+        }
+
+        @Override
+        public boolean matches(String path) {
+            int suffixStart = path.length() - suffix.length();
+            return suffixStart >= prefix.length()
+                    && GitIgnoreRule.regionMatches(path, 0, prefix, ignoreCase)
+                    && GitIgnoreRule.regionMatches(path, suffixStart, suffix, ignoreCase);
+        }
+    }
+
     static GitIgnoreMatcher NEVER_MATCHES = new GitIgnoreMatcher() {
         @Override
         public boolean matches(String path) {
@@ -95,48 +193,223 @@ public class GitIgnoresByGlob extends BaseGitIgnore {
         private final String definition;
         private final boolean matchesDirectory;
         private final String entry;
-        private final GitIgnoreMatcher matcher;
+        private final String glob;
+        private volatile GitIgnoreMatcher matcher;
         private final boolean isGlob;
         private final boolean isNegated;
+        private final boolean nameOnly;
+        private final boolean ignoreCase;
 
         protected GitIgnoreRule(String entry) {
+            this(entry, false);
+        }
+
+        private GitIgnoreRule(String entry, boolean ignoreCase) {
             this.definition = entry;
+            this.ignoreCase = ignoreCase;
             this.isNegated = entry.startsWith("!");
             String withNegationStripped = isNegated ? entry.substring(1, entry.length()) : entry;
-            this.entry = ensureStartingSlash(withNegationStripped);
-            this.isGlob = entry.contains("*");
+            String withStartingSlash = ensureStartingSlash(withNegationStripped);
+            this.entry = ignoreCase ? foldCase(withStartingSlash) : withStartingSlash;
+            this.glob = withStartingSlash;
+            this.isGlob = containsAnyOf(withNegationStripped, "*?[");
             this.matchesDirectory = entry.endsWith("/");
-            this.matcher = isGlob ? createPatternFrom(this.entry): NEVER_MATCHES;
+            this.nameOnly = withoutEndingSlash(withNegationStripped).indexOf('/') < 0;
+            this.matcher = isGlob ? null : NEVER_MATCHES;
+        }
+
+        /**
+         * Compiles the matcher the first time evaluation reaches this rule, as many rules of a large .gitignore file
+         * never are.
+         */
+        private GitIgnoreMatcher matcher() {
+            GitIgnoreMatcher compiled = matcher;
+            if (compiled == null) {
+                synchronized (this) {
+                    compiled = matcher;
+                    if (compiled == null) {
+                        compiled = createPatternFrom(matchesDirectory ? withoutEndingSlash(glob) : glob);
+                        matcher = compiled;
+                    }
+                }
+            }
+            return compiled;
+        }
+
+        boolean isCompiled() {
+            return matcher != null;
         }
 
+        /**
+         * @return this rule matching paths regardless of case, as with core.ignorecase
+         */
+        GitIgnoreRule ignoringCase() {
+            return ignoreCase ? this : new GitIgnoreRule(definition, true);
+        }
+
+        /**
+         * Folds ASCII letters to lower case, as git does under core.ignorecase. Strings without upper case letters are
+         * returned as they are, without copying.
+         */
+        static String foldCase(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c >= 'A' && c <= 'Z') {
+                    char[] folded = s.toCharArray();
+                    for (int j = i; j < folded.length; j++) {
+                        if (folded[j] >= 'A' && folded[j] <= 'Z') {
+                            folded[j] += 'a' - 'A';
+                        }
+                    }
+                    return new String(folded);
+                }
+            }
+            return s;
+        }
+
+        /**
+         * Compares the path a character at a time, folding ASCII letters, against an entry already folded.
+         */
+        private static boolean startsWithFolded(String path, String foldedPrefix) {
+            return regionMatches(path, 0, foldedPrefix, true);
+        }
+
+        /**
+         * @param ignoreCase fold ASCII letters of the path, compared against a part of an entry already folded
+         */
+        static boolean regionMatches(String path, int offset, String part, boolean ignoreCase) {
+            if (offset < 0 || path.length() - offset < part.length()) {
+                return false;
+            }
+            if (!ignoreCase) {
+                return path.startsWith(part, offset);
+            }
+            for (int i = 0; i < part.length(); i++) {
+                char c = path.charAt(offset + i);
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                if (c != part.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean startsWithEntry(String path) {
+            return ignoreCase ? startsWithFolded(path, entry) : path.startsWith(entry);
+        }
+
+        private boolean endsWithEntry(String path) {
+            return regionMatches(path, path.length() - entry.length(), entry, ignoreCase);
+        }
+
+        private boolean equalsEntry(String path) {
+            return path.length() == entry.length() && regionMatches(path, 0, entry, ignoreCase);
+        }
+
+        /**
+         * Translates the glob, which starts with a slash, to a regular expression matching whole paths, which start
+         * with a slash too. A {@code **} between slashes matches any number of directories, including none, and a
+         * trailing one everything inside the directory. A pattern without a slash matches a name at any depth. The
+         * glob is translated as written, not folded, since folding would change escapes and ranges, and the
+         * expression ignores case instead.
+         */
         private GitIgnoreMatcher createPatternFrom(String glob) {
-            StringBuilder regex = new StringBuilder();
+            int star = glob.indexOf('*');
+            if (star >= 0 && glob.indexOf('*', star + 1) < 0 && !containsAnyOf(glob, "?[]{}\\")
+                    && (!nameOnly || star == 1)) {
+                String prefix = glob.substring(0, star);
+                String suffix = glob.substring(star + 1);
+                return ignoreCase
+                        ? new PrefixSuffixMatcher(foldCase(prefix), foldCase(suffix), true)
+                        : new PrefixSuffixMatcher(prefix, suffix, false);
+            }
+            StringBuilder regex = new StringBuilder(nameOnly ? "(?:/.*)?" : "");
             for (int i = 0; i < glob.length(); i++) {
                 char c = glob.charAt(i);
 
+                if (c == '/' && glob.startsWith("**/", i + 1)) {
+                    regex.append("(?:/.*)?/");
+                    i += 3;
+                    continue;
+                }
+                if (c == '/' && glob.startsWith("**", i + 1) && i + 3 == glob.length()) {
+                    regex.append("/.*");
+                    break;
+                }
                 switch(c) {
                     case '*':
-                        regex.append('.');
+                        regex.append(".*");
                         break;
-                    case '.':
-                    case '$':
-                    case '(':
-                    case ')':
-                    case '|':
-                    case '+':
-                    case '^':
-                        regex.append('\\');
+                    case '?':
+                        regex.append("[^/]");
+                        break;
+                    case '[':
+                        int end = appendCharacterClass(glob, i, regex);
+                        if (end < 0) {
+                            appendLiteral(c, regex);
+                        } else {
+                            i = end;
+                        }
                         break;
                     case '\\':
-                        i++;
-                        char escaped = glob.charAt(i);
-                        regex.append('\\').append(escaped);
-                        continue;
+                        if (i + 1 < glob.length()) {
+                            i++;
+                        }
+                        appendLiteral(glob.charAt(i), regex);
+                        break;
+                    default:
+                        appendLiteral(c, regex);
+                }
+            }
+            int flags = Pattern.DOTALL | (ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
+            return new GlobRegexMatcher(Pattern.compile(regex.toString(), flags));
+        }
+
+        private static void appendLiteral(char c, StringBuilder regex) {
+            if (".$()|+^{}[]?*\\".indexOf(c) >= 0) {
+                regex.append('\\');
+            }
+            regex.append(c);
+        }
+
+        /**
+         * Appends the bracket expression starting at the given index, which never matches a slash.
+         *
+         * @return the index of its closing bracket, or -1 if it is not closed, so the bracket is literal
+         */
+        private static int appendCharacterClass(String glob, int start, StringBuilder regex) {
+            int i = start + 1;
+            boolean negated = i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^');
+            if (negated) {
+                i++;
+            }
+            StringBuilder characters = new StringBuilder();
+            for (boolean first = true; i < glob.length() && (first || glob.charAt(i) != ']'); i++, first = false) {
+                char c = glob.charAt(i);
+                if (c == '\\' && i + 1 < glob.length()) {
+                    c = glob.charAt(++i);
+                }
+                if ("[]&^\\".indexOf(c) >= 0) {
+                    characters.append('\\');
                 }
+                characters.append(c);
+            }
+            if (i >= glob.length()) {
+                return -1;
+            }
+            regex.append(negated ? "[^/" : "[").append(characters).append(']');
+            return i;
+        }
 
-                regex.append(c);
+        private static boolean containsAnyOf(String s, String characters) {
+            for (int i = 0; i < characters.length(); i++) {
+                if (s.indexOf(characters.charAt(i)) >= 0) {
+                    return true;
+                }
             }
-            return new GlobRegexMatcher(Pattern.compile(regex.toString()));
+            return false;
         }
 
         @Override
@@ -144,6 +417,10 @@ public class GitIgnoresByGlob extends BaseGitIgnore {
             return definition;
         }
 
+        boolean isNegated() {
+            return isNegated;
+        }
+
         @Override
         public IgnoreRuleMatch check(String path, boolean isDirectory) {
             boolean matchesBeforeNegation = matchesBeforeNegation(path, isDirectory);
@@ -155,21 +432,27 @@ public class GitIgnoresByGlob extends BaseGitIgnore {
             }
         }
 
+        /**
+         * @param path relative to the directory of the .gitignore file, without a trailing slash for directories
+         */
         private boolean matchesBeforeNegation(String path, boolean isDirectory) {
             path = ensureStartingSlash(path);
 
             if (this.matchesDirectory) {
-                if (isDirectory) {
-                    return ensureEndingSlash(path).startsWith(entry);
+                if (isGlob) {
+                    return isDirectory && matcher().matches(path);
+                } else if (isDirectory) {
+                    String directory = ensureEndingSlash(path);
+                    return startsWithEntry(directory) || (nameOnly && endsWithEntry(directory));
                 } else {
-                    return path.startsWith(entry);
+                    return startsWithEntry(path);
                 }
             }
 
             if (isGlob) {
-                return this.matcher.matches(path);
+                return matcher().matches(path);
             } else {
-                return ensureStartingSlash(path).equals(entry);
+                return equalsEntry(path) || (nameOnly && endsWithEntry(path));
             }
         }
 
@@ -181,10 +464,14 @@ public class GitIgnoresByGlob extends BaseGitIgnore {
             return path.endsWith("/") ? path : path + "/";
         }
 
+        private static String withoutEndingSlash(String path) {
+            return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        }
+
         @Override
         public String toString() {
-            return String.format("IgnoreRule[entry=%s, negated=%s, isGlob=%s, matchesDirectory=%s]",
-                    this.entry, this.isNegated, this.isGlob, this.matchesDirectory);
+            return String.format("IgnoreRule[entry=%s, negated=%s, isGlob=%s, matchesDirectory=%s, ignoreCase=%s]",
+                    this.entry, this.isNegated, this.isGlob, this.matchesDirectory, this.ignoreCase);
         }
 
 
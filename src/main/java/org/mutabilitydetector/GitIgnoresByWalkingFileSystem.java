@@ -5,6 +5,7 @@ import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.treewalk.FileTreeIterator;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.NotIgnoredFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 import java.io.File;
 import java.io.IOException;
@@ -12,36 +13,146 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
-class GitIgnoresByWalkingFileSystem implements VcsIgnores {
+class GitIgnoresByWalkingFileSystem implements VcsIgnores, RetainedSize {
+
+    private static final int ENTRY_OVERHEAD_BYTES = 80;
 
     private final Set<String> unignoredResources;
+    private final long estimatedBytes;
 
     public GitIgnoresByWalkingFileSystem(Set<String> unignoredResources) {
         this.unignoredResources = Collections.unmodifiableSet(unignoredResources);
+        this.estimatedBytes = estimateSizeOf(unignoredResources);
     }
 
     static GitIgnoresByWalkingFileSystem fromRootDir(String path) {
+        return fromRootDir(path, new NotIgnoredFilter(0));
+    }
+
+    /**
+     * Walks with the compiled rules of the given engine rather than JGit's, so walking again with the same engine
+     * does not read any .gitignore file twice.
+     */
+    static GitIgnoresByWalkingFileSystem fromRootDir(String path, BaseGitIgnore rules) {
+        return fromRootDir(path, new NotIgnoredByRulesFilter(rules));
+    }
+
+    private static GitIgnoresByWalkingFileSystem fromRootDir(String path, TreeFilter notIgnored) {
+        Repository repository = null;
+        try {
+            repository = openRepository(path);
+            return new GitIgnoresByWalkingFileSystem(walk(repository, notIgnored, true));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (repository != null) {
+                repository.close();
+            }
+        }
+    }
+
+    /**
+     * Walks nothing up front, only the subtrees of top-level directories as they are first queried.
+     */
+    static GitIgnoresByWalkingSubtrees lazilyFromRootDir(String path) {
+        try {
+            return new GitIgnoresByWalkingSubtrees(path, openRepository(path));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static Repository openRepository(String path) throws IOException {
+        File gitDir = new File(path + "/.git");
+        return new FileRepository(gitDir);
+    }
+
+    /**
+     * @return the paths of the files and directories in the working tree which pass the filter, or with recursive
+     * false, of those at the top level. Directories are recorded so that they are answered as the rules would answer
+     * them, rather than as ignored for want of an entry.
+     */
+    static Set<String> walk(Repository repository, TreeFilter filter, boolean recursive) throws IOException {
+        CountingFilter counting = IgnoreEvents.isEnabled() ? new CountingFilter(filter) : null;
+        long start = System.nanoTime();
+        TreeWalk tw = new TreeWalk(repository);
         try {
-            File gitDir = new File(path + "/.git");
-            Repository repository = new FileRepository(gitDir);
             FileTreeIterator fileTreeIterator = new FileTreeIterator(repository);
-            TreeWalk tw = new TreeWalk(repository);
-            tw.setRecursive(true);
+            tw.setRecursive(false);
             tw.addTree(fileTreeIterator);
-            tw.setFilter(new NotIgnoredFilter(0));
+            tw.setFilter(counting != null ? counting : filter);
 
             Set<String> unignoredResources = new HashSet<String>();
             while (tw.next()) {
                 unignoredResources.add(tw.getPathString());
+                if (recursive && tw.isSubtree()) {
+                    tw.enterSubtree();
+                }
+            }
+            if (counting != null) {
+                IgnoreEvents.walk(repository.getWorkTree().getPath(), counting.visited, counting.pruned, System.nanoTime() - start);
+            }
+            return unignoredResources;
+        } finally {
+            tw.release();
+        }
+    }
+
+    /**
+     * Counts the entries a walk asks its filter about, and the directories the filter keeps it out of.
+     */
+    private static final class CountingFilter extends TreeFilter {
+        private final TreeFilter filter;
+        long visited;
+        long pruned;
 
+        CountingFilter(TreeFilter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean include(TreeWalk walker) throws IOException {
+            visited++;
+            boolean included = filter.include(walker);
+            if (!included && walker.isSubtree()) {
+                pruned++;
             }
-            return new GitIgnoresByWalkingFileSystem(unignoredResources);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            return included;
+        }
+
+        @Override
+        public boolean shouldBeRecursive() {
+            return filter.shouldBeRecursive();
+        }
+
+        @Override
+        public TreeFilter clone() {
+            return this;
+        }
+    }
+
+    static long estimateSizeOf(Set<String> resources) {
+        long size = 0;
+        for (String resource: resources) {
+            size += ENTRY_OVERHEAD_BYTES + 2L * resource.length();
         }
+        return size;
     }
 
     public boolean isIgnored(String relativePath) {
         return !unignoredResources.contains(relativePath);
     }
+
+    /**
+     * @param path a repository relative path, without leading or trailing slashes
+     * @return true if the walk found the path and did not ignore it
+     */
+    boolean walked(String path) {
+        return unignoredResources.contains(path);
+    }
+
+    @Override
+    public long estimatedRetainedBytes() {
+        return estimatedBytes;
+    }
 }
@@ -0,0 +1,117 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.NotIgnoredFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers as {@link GitIgnoresByWalkingFileSystem} does, but walks the working tree one top-level directory at a
+ * time, the first time a path inside it is queried. Files at the top level are found by a walk which does not
+ * descend at all. Clients which only look at part of a large repository pay only for walking that part.
+ * <p>
+ * The repository is held open between walks until {@link #close()}. Subtrees first queried after that are walked
+ * with a repository opened just for the walk.
+ */
+class GitIgnoresByWalkingSubtrees implements VcsIgnores, RetainedSize, Closeable {
+
+    private static final String TOP_LEVEL = "";
+
+    private final String rootDir;
+    private final ConcurrentMap<String, FutureTask<Set<String>>> subtrees = new ConcurrentHashMap<>();
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    private Repository repository;
+
+    GitIgnoresByWalkingSubtrees(String rootDir, Repository repository) {
+        this.rootDir = rootDir;
+        this.repository = repository;
+    }
+
+    @Override
+    public boolean isIgnored(String relativePath) {
+        int slash = relativePath.indexOf('/');
+        String topLevelDirectory = slash <= 0 ? TOP_LEVEL : relativePath.substring(0, slash);
+        return !unignoredResourcesIn(topLevelDirectory).contains(relativePath);
+    }
+
+    /**
+     * @return the number of subtrees walked so far, counting the top level as one
+     */
+    int subtreesWalked() {
+        return subtrees.size();
+    }
+
+    private Set<String> unignoredResourcesIn(final String topLevelDirectory) {
+        FutureTask<Set<String>> subtree = subtrees.get(topLevelDirectory);
+        if (subtree == null) {
+            FutureTask<Set<String>> walk = new FutureTask<>(new Callable<Set<String>>() {
+                @Override public Set<String> call() throws IOException {
+                    return walk(topLevelDirectory);
+                }
+            });
+            subtree = subtrees.putIfAbsent(topLevelDirectory, walk);
+            if (subtree == null) {
+                subtree = walk;
+                walk.run();
+            }
+        }
+
+        try {
+            return subtree.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            subtrees.remove(topLevelDirectory, subtree);
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private Set<String> walk(String topLevelDirectory) throws IOException {
+        boolean atTopLevel = topLevelDirectory.equals(TOP_LEVEL);
+        TreeFilter filter = atTopLevel
+                ? new NotIgnoredFilter(0)
+                : AndTreeFilter.create(PathFilter.create(topLevelDirectory), new NotIgnoredFilter(0));
+
+        Repository open = openRepository();
+        boolean transientRepository = open != repository;
+        try {
+            Set<String> unignoredResources = GitIgnoresByWalkingFileSystem.walk(open, filter, !atTopLevel);
+            estimatedBytes.addAndGet(GitIgnoresByWalkingFileSystem.estimateSizeOf(unignoredResources));
+            return Collections.unmodifiableSet(unignoredResources);
+        } finally {
+            if (transientRepository) {
+                open.close();
+            }
+        }
+    }
+
+    private synchronized Repository openRepository() throws IOException {
+        return repository != null ? repository : GitIgnoresByWalkingFileSystem.openRepository(rootDir);
+    }
+
+    @Override
+    public long estimatedRetainedBytes() {
+        return estimatedBytes.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (repository != null) {
+            repository.close();
+            repository = null;
+        }
+    }
+}
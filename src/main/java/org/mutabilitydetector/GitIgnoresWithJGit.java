@@ -1,22 +1,15 @@
 package org.mutabilitydetector;
 
 import org.eclipse.jgit.ignore.IgnoreNode;
+import org.mutabilitydetector.GitIgnoresByGlob.GitIgnoreRule;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.eclipse.jgit.ignore.IgnoreNode.MatchResult;
-import static org.eclipse.jgit.ignore.IgnoreNode.MatchResult.CHECK_PARENT;
-import static org.eclipse.jgit.ignore.IgnoreNode.MatchResult.IGNORED;
-import static org.eclipse.jgit.ignore.IgnoreNode.MatchResult.NOT_IGNORED;
-import static org.mutabilitydetector.IgnoreRuleMatch.DOES_NOT_MATCH;
 import static org.mutabilitydetector.IgnoreRuleMatch.IS_IGNORED;
 import static org.mutabilitydetector.IgnoreRuleMatch.IS_NOT_IGNORED;
 
@@ -26,48 +19,228 @@ public final class GitIgnoresWithJGit extends BaseGitIgnore {
 		super(FileBasedGitIgnore.root(rootDirectory));
 	}
 
-    private static final Map<MatchResult, IgnoreRuleMatch> JGIT_TO_IGNORE_RULE_MATCH = createMapping();
-
-    private static Map<MatchResult, IgnoreRuleMatch> createMapping() {
-        Map<MatchResult, IgnoreRuleMatch> mappings = new HashMap<>();
-        mappings.put(IGNORED, IS_IGNORED);
-        mappings.put(NOT_IGNORED, IS_NOT_IGNORED);
-        mappings.put(CHECK_PARENT, DOES_NOT_MATCH);
-        return Collections.unmodifiableMap(mappings);
+    private GitIgnoresWithJGit(RepositoryRoot rootDirectory, CompiledRulesCache rulesCache) {
+        super(rootDirectory, rulesCache);
     }
 
-    public static VcsIgnores fromRootDir(String absolutePath) {
+    public static GitIgnoresWithJGit fromRootDir(String absolutePath) {
         return new GitIgnoresWithJGit(new File(absolutePath));
     }
 
-    protected MatchResult getMatchResult(String pathToCheck, File currentGitIgnore, boolean isDirectory) {
-        try (InputStream in = new FileInputStream(currentGitIgnore)) {
-            IgnoreNode ignoreNode = new IgnoreNode();
-            ignoreNode.parse(in);
-            return ignoreNode.isIgnored(pathToCheck, isDirectory);
-        } catch (IOException e) {
-            return NOT_IGNORED;
-        }
+    public static GitIgnoresWithJGit fromRepositoryRoot(RepositoryRoot rootDirectory, CompiledRulesCache rulesCache) {
+        return new GitIgnoresWithJGit(rootDirectory, rulesCache);
     }
 
     @Override
-    protected IgnoreRuleMatch getMatchResult(String pathToCheck, IgnoreRules currentGitIgnore, boolean isDirectory) {
-        try {
-            List<org.eclipse.jgit.ignore.IgnoreRule> converted = new ArrayList<>();
-            for (IgnoreRule rule: currentGitIgnore.rules()) {
-                converted.add(from(rule));
+    protected CompiledIgnoreRules compile(List<IgnoreRule> rules) {
+        return new JGitRules(rules, isIgnoreCase());
+    }
+
+    static final class JGitRules implements CompiledIgnoreRules, RetainedSize {
+
+        /**
+         * Idle copies kept per rule set. Threads beyond this many looking up paths at once compile a copy for the
+         * lookup and drop it afterwards.
+         */
+        static final int MAXIMUM_IDLE_MATCHERS = 4;
+
+        private static final int MATCHER_OVERHEAD_BYTES = 32;
+        private static final int JGIT_RULE_BYTES = 96;
+
+        private final String[] patterns;
+        private final String[] atTopLevelPatterns;
+        private final Queue<JGitMatchers> idleMatchers = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger idleMatcherCount = new AtomicInteger();
+        private final boolean[] ignores;
+        private final boolean[] insideOnly;
+        private final boolean[] nameOnly;
+        private final boolean[] directoryOnly;
+        private final String[] definitions;
+        private final boolean ignoreCase;
+
+        /**
+         * @param ignoreCase JGit's rules are case sensitive, so their patterns are folded here, once, and only paths
+         * with upper case letters in them are folded on lookup
+         */
+        JGitRules(List<IgnoreRule> rules, boolean ignoreCase) {
+            this.patterns = new String[rules.size()];
+            this.atTopLevelPatterns = new String[rules.size()];
+            this.ignores = new boolean[rules.size()];
+            this.insideOnly = new boolean[rules.size()];
+            this.nameOnly = new boolean[rules.size()];
+            this.directoryOnly = new boolean[rules.size()];
+            this.definitions = new String[rules.size()];
+            this.ignoreCase = ignoreCase;
+            for (int i = 0; i < this.patterns.length; i++) {
+                String definition = withRepeatedDoubleStarsCollapsed(rules.get(i).definition());
+                this.patterns[i] = patternOf(definition, ignoreCase);
+                this.atTopLevelPatterns[i] = patternOf(withoutLeadingDoubleStar(definition), ignoreCase);
+                this.insideOnly[i] = definition.endsWith("/*") || definition.endsWith("/**");
+                this.nameOnly[i] = isNameOnly(definition);
+                this.directoryOnly[i] = definition.endsWith("/");
+                this.definitions[i] = rules.get(i).definition();
+            }
+
+            JGitMatchers compiledHere = new JGitMatchers(patterns, atTopLevelPatterns);
+            for (int i = 0; i < ignores.length; i++) {
+                ignores[i] = compiledHere.rules[i] != null && compiledHere.rules[i].getResult();
+            }
+            release(compiledHere);
+        }
+
+        @Override
+        public int lastMatchingRule(String pathToCheck, boolean isDirectory) {
+            String path = jgitPath(pathToCheck, isDirectory);
+            JGitMatchers compiled = borrow();
+            try {
+                for (int i = patterns.length - 1; i >= 0; i--) {
+                    if (matchesJGitPath(compiled, i, path, isDirectory)) {
+                        return i;
+                    }
+                }
+                return -1;
+            } finally {
+                release(compiled);
+            }
+        }
+
+        @Override
+        public boolean matches(int rule, String path, boolean isDirectory) {
+            JGitMatchers compiled = borrow();
+            try {
+                return matchesJGitPath(compiled, rule, jgitPath(path, isDirectory), isDirectory);
+            } finally {
+                release(compiled);
+            }
+        }
+
+        private JGitMatchers borrow() {
+            JGitMatchers idle = idleMatchers.poll();
+            if (idle == null) {
+                return new JGitMatchers(patterns, atTopLevelPatterns);
+            }
+            idleMatcherCount.decrementAndGet();
+            return idle;
+        }
+
+        private void release(JGitMatchers compiled) {
+            if (idleMatcherCount.incrementAndGet() <= MAXIMUM_IDLE_MATCHERS) {
+                idleMatchers.offer(compiled);
+            } else {
+                idleMatcherCount.decrementAndGet();
+            }
+        }
+
+        int idleMatchers() {
+            return idleMatcherCount.get();
+        }
+
+        /**
+         * @return the most the idle copies of the JGit rules can hold, on top of the definitions themselves
+         */
+        @Override
+        public long estimatedRetainedBytes() {
+            long perCopy = MATCHER_OVERHEAD_BYTES;
+            for (int i = 0; i < patterns.length; i++) {
+                perCopy += (patterns[i] == null ? 0 : JGIT_RULE_BYTES + 2L * patterns[i].length())
+                        + (atTopLevelPatterns[i] == null ? 0 : JGIT_RULE_BYTES + 2L * atTopLevelPatterns[i].length());
+            }
+            return MAXIMUM_IDLE_MATCHERS * perCopy;
+        }
+
+        /**
+         * JGit 3.5 has no notion of {@code **}, so a leading one is also tried as matching no directories at all,
+         * and a trailing wildcard is kept from matching the directory itself. A rule without a slash would match
+         * any directory along the path, but the parents have been decided already, so it is given the name only.
+         * For the same reason a rule ending in a slash never matches a file.
+         */
+        private boolean matchesJGitPath(JGitMatchers compiled, int rule, String path, boolean isDirectory) {
+            if (patterns[rule] == null || (directoryOnly[rule] && !isDirectory)) {
+                return false;
+            }
+            if (nameOnly[rule]) {
+                path = path.substring(path.lastIndexOf('/', path.length() - 2) + 1);
+            }
+            if (isDirectory && insideOnly[rule] && path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+            return compiled.rules[rule].isMatch(path, isDirectory)
+                    || (compiled.atTopLevel[rule] != null && compiled.atTopLevel[rule].isMatch(path, isDirectory));
+        }
+
+        /**
+         * JGit's rules expect directories with a trailing slash, as {@link java.net.URI#relativize} gives them.
+         */
+        private String jgitPath(String path, boolean isDirectory) {
+            String folded = ignoreCase ? GitIgnoreRule.foldCase(path) : path;
+            return isDirectory && !folded.isEmpty() ? folded + "/" : folded;
+        }
+
+        @Override
+        public IgnoreRuleMatch resultOf(int rule) {
+            return ignores[rule] ? IS_IGNORED : IS_NOT_IGNORED;
+        }
+
+        @Override
+        public String definition(int rule) {
+            return definitions[rule];
+        }
+
+        @Override
+        public int ruleCount() {
+            return patterns.length;
+        }
+    }
+
+    /**
+     * A JGit rule with wildcards resets and reuses one matcher on every call, so a copy of the rules is used by one
+     * thread at a time. The workers of a parallel walk borrow copies from a small pool rather than each keeping one.
+     */
+    private static final class JGitMatchers {
+        final org.eclipse.jgit.ignore.IgnoreRule[] rules;
+        final org.eclipse.jgit.ignore.IgnoreRule[] atTopLevel;
+
+        JGitMatchers(String[] patterns, String[] atTopLevelPatterns) {
+            this.rules = new org.eclipse.jgit.ignore.IgnoreRule[patterns.length];
+            this.atTopLevel = new org.eclipse.jgit.ignore.IgnoreRule[patterns.length];
+            for (int i = 0; i < patterns.length; i++) {
+                rules[i] = patterns[i] == null ? null : new org.eclipse.jgit.ignore.IgnoreRule(patterns[i]);
+                atTopLevel[i] = atTopLevelPatterns[i] == null
+                        ? null
+                        : new org.eclipse.jgit.ignore.IgnoreRule(atTopLevelPatterns[i]);
             }
-            IgnoreNode ignoreNode = new IgnoreNode(converted);
-            return JGIT_TO_IGNORE_RULE_MATCH.get(ignoreNode.isIgnored(pathToCheck, isDirectory));
-        } catch (IgnoreRules.FailedToRetrieveIgnoreRules failedToRetrieveIgnoreRules) {
-            failedToRetrieveIgnoreRules.printStackTrace();
-            return IS_NOT_IGNORED;
         }
     }
 
+    /**
+     * Blank lines and comments are skipped, as they are by {@link IgnoreNode#parse(InputStream)}.
+     */
+    private static String patternOf(String definition, boolean ignoreCase) {
+        if (definition == null || definition.isEmpty() || definition.startsWith("#") || definition.equals("/")) {
+            return null;
+        }
+        return ignoreCase ? GitIgnoreRule.foldCase(definition) : definition;
+    }
+
+    private static String withRepeatedDoubleStarsCollapsed(String definition) {
+        String collapsed = definition;
+        while (collapsed.contains("/**/**")) {
+            collapsed = collapsed.replace("/**/**", "/**");
+        }
+        return collapsed;
+    }
 
+    private static boolean isNameOnly(String definition) {
+        String pattern = definition.startsWith("!") ? definition.substring(1) : definition;
+        return pattern.indexOf('/') < 0 || pattern.indexOf('/') == pattern.length() - 1;
+    }
 
-    private static org.eclipse.jgit.ignore.IgnoreRule from(IgnoreRule thisRule) {
-        return new org.eclipse.jgit.ignore.IgnoreRule(thisRule.definition());
+    /**
+     * @return the definition without its leading {@code **}{@code /}, or null if it has none
+     */
+    private static String withoutLeadingDoubleStar(String definition) {
+        String negation = definition.startsWith("!") ? "!" : "";
+        String pattern = definition.substring(negation.length());
+        return pattern.startsWith("**/") && pattern.length() > 3 ? negation + "/" + pattern.substring(3) : null;
     }
 }
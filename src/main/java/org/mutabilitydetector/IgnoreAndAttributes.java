@@ -0,0 +1,50 @@
+package org.mutabilitydetector;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Whether a path is ignored, and the attributes .gitattributes files assign to it, found in one lookup.
+ */
+public final class IgnoreAndAttributes {
+
+    private final IgnoreDecision ignoreDecision;
+    private final Map<String, String> attributes;
+
+    IgnoreAndAttributes(IgnoreDecision ignoreDecision, Map<String, String> attributes) {
+        this.ignoreDecision = ignoreDecision;
+        this.attributes = Collections.unmodifiableMap(attributes);
+    }
+
+    public IgnoreDecision ignoreDecision() {
+        return ignoreDecision;
+    }
+
+    public boolean isIgnored() {
+        return ignoreDecision.isIgnored();
+    }
+
+    /**
+     * @return every attribute specified for the path, by name. Values are {@link GitAttributeRule#SET},
+     * {@link GitAttributeRule#UNSET}, or the value assigned, as {@code git check-attr} reports them.
+     */
+    public Map<String, String> attributes() {
+        return attributes;
+    }
+
+    /**
+     * @return the value of the attribute, or null if it is unspecified
+     */
+    public String attribute(String name) {
+        return attributes.get(name);
+    }
+
+    public boolean isSet(String name) {
+        return GitAttributeRule.SET.equals(attributes.get(name));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IgnoreAndAttributes[ignored=%s, attributes=%s]", isIgnored(), attributes);
+    }
+}
@@ -0,0 +1,59 @@
+package org.mutabilitydetector;
+
+/**
+ * Whether a path is ignored, and which rule decided it.
+ */
+public final class IgnoreDecision {
+
+    static final IgnoreDecision NO_MATCHING_RULE = new IgnoreDecision(false, null, -1, null);
+    static final IgnoreDecision INTERNAL = new IgnoreDecision(true, null, -1, null);
+
+    private final boolean ignored;
+    private final String source;
+    private final int rule;
+    private final String definition;
+
+    IgnoreDecision(boolean ignored, String source, int rule, String definition) {
+        this.ignored = ignored;
+        this.source = source;
+        this.rule = rule;
+        this.definition = definition;
+    }
+
+    public boolean isIgnored() {
+        return ignored;
+    }
+
+    /**
+     * @return true if a rule from a .gitignore file decided, false if no rule matched, or the path is internal to
+     * the repository.
+     */
+    public boolean hasDecidingRule() {
+        return rule >= 0;
+    }
+
+    /**
+     * @return the repository relative path of the directory containing the deciding .gitignore file, empty for the
+     * repository root.
+     */
+    public String source() {
+        return source;
+    }
+
+    /**
+     * @return the line of the deciding rule in its .gitignore file, counting from zero.
+     */
+    public int rule() {
+        return rule;
+    }
+
+    public String definition() {
+        return definition;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IgnoreDecision[ignored=%s, source=%s, rule=%s, definition=%s]",
+                ignored, source, rule, definition);
+    }
+}
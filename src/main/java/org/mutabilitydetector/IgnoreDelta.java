@@ -0,0 +1,230 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.mutabilitydetector.FileBasedGitIgnore.GitIgnoreRules;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Which paths change ignore status when the .gitignore file of one directory changes.
+ * <p>
+ * The old and new rules are diffed line by line. A path can only change status if it, or one of its directories
+ * below the .gitignore file, matches a rule which was removed or added: otherwise the last rule it matches is common
+ * to both versions. Only such candidates are evaluated, once against the old rules and once against the new, with
+ * the .gitignore files of every other directory as they are on disk. So the cost of a small edit is in proportion to
+ * the paths its rules match, not to the size of the repository.
+ */
+public final class IgnoreDelta {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Map<ObjectId, CompiledIgnoreRules> NOTHING_INHERITED = Collections.emptyMap();
+
+    private final BaseGitIgnore engine;
+    private final String directory;
+    private final IgnoreTrie before;
+    private final IgnoreTrie after;
+    private final CompiledIgnoreRules removed;
+    private final CompiledIgnoreRules added;
+    private final int removedRules;
+    private final int addedRules;
+
+    private final AtomicLong pathsConsidered = new AtomicLong();
+    private final AtomicLong candidatesEvaluated = new AtomicLong();
+
+    private IgnoreDelta(BaseGitIgnore engine, String directory, List<IgnoreRule> oldRules, List<IgnoreRule> newRules) {
+        this.engine = engine;
+        this.directory = directory;
+        this.before = new IgnoreTrie(engine.rootDirectory, engine, NOTHING_INHERITED, directory, engine.compileIgnoreFile(oldRules));
+        this.after = new IgnoreTrie(engine.rootDirectory, engine, NOTHING_INHERITED, directory, engine.compileIgnoreFile(newRules));
+
+        List<IgnoreRule> removedRules = new ArrayList<>();
+        List<IgnoreRule> addedRules = new ArrayList<>();
+        EditList edits = DiffAlgorithm.getAlgorithm(SupportedAlgorithm.HISTOGRAM)
+                .diff(RawTextComparator.DEFAULT, asText(oldRules), asText(newRules));
+        for (Edit edit: edits) {
+            removedRules.addAll(oldRules.subList(edit.getBeginA(), edit.getEndA()));
+            addedRules.addAll(newRules.subList(edit.getBeginB(), edit.getEndB()));
+        }
+        this.removed = engine.compile(removedRules);
+        this.added = engine.compile(addedRules);
+        this.removedRules = removedRules.size();
+        this.addedRules = addedRules.size();
+    }
+
+    /**
+     * @param directory the repository relative path of the directory whose .gitignore file changed, empty for the
+     * repository root
+     */
+    public static IgnoreDelta between(BaseGitIgnore engine, String directory,
+                                      List<IgnoreRule> oldRules, List<IgnoreRule> newRules) {
+        return new IgnoreDelta(engine, normalise(directory), oldRules, newRules);
+    }
+
+    /**
+     * As {@link #between(BaseGitIgnore, String, List, List)}, with the old and new content of the .gitignore file.
+     */
+    public static IgnoreDelta between(BaseGitIgnore engine, String directory, String oldContent, String newContent) {
+        return between(engine, directory, parse(oldContent), parse(newContent));
+    }
+
+    /**
+     * @param paths repository relative paths, such as those of an index. Those outside the directory are skipped.
+     * @return each path whose status changed, with whether it is now ignored, in the order given
+     */
+    public Map<String, Boolean> changes(Iterable<String> paths) {
+        Map<String, Boolean> changes = new LinkedHashMap<>();
+        for (String path: paths) {
+            String normalised = normalise(path);
+            if (isUnderDirectory(normalised)) {
+                check(normalised, engine.rootDirectory.fromPath(normalised).isDirectory(), changes);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @param rootDir the directory the engine's repository root was created from
+     * @return each file and directory under the changed .gitignore file, in the working tree, whose status changed
+     */
+    public Map<String, Boolean> changesInWorkingTree(File rootDir) throws IOException {
+        final Path root = rootDir.toPath();
+        final Map<String, Boolean> changes = new LinkedHashMap<>();
+        Files.walkFileTree(root.resolve(directory), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.getFileName().toString().equals(Constants.DOT_GIT)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                String path = relativePath(root, dir);
+                if (!path.isEmpty() && isUnderDirectory(path)) {
+                    check(path, true, changes);
+                }
+                return !path.isEmpty() && FileBasedGitIgnore.isNestedRepository(dir.toFile())
+                        ? FileVisitResult.SKIP_SUBTREE
+                        : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                check(relativePath(root, file), false, changes);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return changes;
+    }
+
+    private void check(String path, boolean isDirectory, Map<String, Boolean> changes) {
+        pathsConsidered.incrementAndGet();
+        if (!isCandidate(path, isDirectory)) {
+            return;
+        }
+        candidatesEvaluated.incrementAndGet();
+        boolean wasIgnored = before.explain(path, isDirectory).isIgnored();
+        boolean isIgnored = after.explain(path, isDirectory).isIgnored();
+        if (wasIgnored != isIgnored) {
+            changes.put(path, isIgnored);
+        }
+    }
+
+    private boolean isCandidate(String path, boolean isDirectory) {
+        String relativePath = directory.isEmpty() ? path : path.substring(directory.length() + 1);
+        if (matchesChangedRule(relativePath, isDirectory)) {
+            return true;
+        }
+        for (int slash = relativePath.indexOf('/'); slash >= 0; slash = relativePath.indexOf('/', slash + 1)) {
+            if (matchesChangedRule(relativePath.substring(0, slash), true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesChangedRule(String relativePath, boolean isDirectory) {
+        return removed.lastMatchingRule(relativePath, isDirectory) >= 0
+                || added.lastMatchingRule(relativePath, isDirectory) >= 0;
+    }
+
+    private boolean isUnderDirectory(String path) {
+        return directory.isEmpty()
+                ? !path.isEmpty()
+                : path.length() > directory.length() && path.startsWith(directory) && path.charAt(directory.length()) == '/';
+    }
+
+    public int removedRules() {
+        return removedRules;
+    }
+
+    public int addedRules() {
+        return addedRules;
+    }
+
+    /**
+     * @return how many paths under the directory have been looked at, of which only {@link #candidatesEvaluated()}
+     * were evaluated against the rules
+     */
+    public long pathsConsidered() {
+        return pathsConsidered.get();
+    }
+
+    public long candidatesEvaluated() {
+        return candidatesEvaluated.get();
+    }
+
+    private static RawText asText(List<IgnoreRule> rules) {
+        StringBuilder text = new StringBuilder();
+        for (IgnoreRule rule: rules) {
+            text.append(rule.definition()).append('\n');
+        }
+        return new RawText(text.toString().getBytes(UTF_8));
+    }
+
+    private static List<IgnoreRule> parse(String content) {
+        try {
+            return GitIgnoreRules.ignoreEntries(new ByteArrayInputStream(content.getBytes(UTF_8)));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String relativePath(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private static String normalise(String path) {
+        int start = path.startsWith("/") ? 1 : 0;
+        int end = path.endsWith("/") && path.length() > start ? path.length() - 1 : path.length();
+        return path.substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IgnoreDelta[directory=%s, removedRules=%d, addedRules=%d, pathsConsidered=%d, "
+                + "candidatesEvaluated=%d]", directory, removedRules(), addedRules(), pathsConsidered(), candidatesEvaluated());
+    }
+}
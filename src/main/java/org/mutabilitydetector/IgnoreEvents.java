@@ -0,0 +1,126 @@
+package org.mutabilitydetector;
+
+/**
+ * Events describing ignore lookups, the loading of .gitignore files and walks of the working tree, to explain
+ * latency seen in a profile. Recording is off by default, and then costs each lookup a single volatile read.
+ * <p>
+ * Events shorter than the threshold for their kind are not delivered, so a listener can be left enabled to catch
+ * only the slow ones. Listeners are called on the thread which did the work, so must be thread safe, and quick.
+ */
+public final class IgnoreEvents {
+    private IgnoreEvents() {}
+
+    public interface Listener {
+
+        /**
+         * @param depth the number of segments in the path
+         * @param decision the outcome, with the deciding rule if there was one
+         * @param cacheHit true if no .gitignore file was read during the lookup. Another thread's lookup reading
+         * one at the same time can make this false.
+         */
+        void lookup(String path, int depth, IgnoreDecision decision, long durationNanos, boolean cacheHit);
+
+        /**
+         * @param directory the repository relative path of the directory holding the .gitignore file, empty for the
+         * root
+         * @param characters the length of the rules, counting a line break after each
+         * @param loadNanos the time to read and compile the rules, or only to find them on a cache hit
+         * @param cacheHit true if rules compiled earlier from the same content were reused
+         */
+        void rulesLoaded(String directory, long characters, int ruleCount, long loadNanos, boolean cacheHit);
+
+        /**
+         * @param entriesVisited the files and directories the walk's filter was asked about
+         * @param subtreesPruned the directories the filter excluded, so were not walked into
+         */
+        void walk(String rootDir, long entriesVisited, long subtreesPruned, long durationNanos);
+    }
+
+    /**
+     * The shortest event of each kind which is delivered.
+     */
+    public static final class Thresholds {
+        public static final Thresholds ALL = new Thresholds(0, 0, 0);
+
+        private final long lookupNanos;
+        private final long loadNanos;
+        private final long walkNanos;
+
+        public Thresholds(long lookupNanos, long loadNanos, long walkNanos) {
+            this.lookupNanos = lookupNanos;
+            this.loadNanos = loadNanos;
+            this.walkNanos = walkNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Thresholds[lookup=%dns, load=%dns, walk=%dns]", lookupNanos, loadNanos, walkNanos);
+        }
+    }
+
+    private static final class Recording {
+        final Listener listener;
+        final Thresholds thresholds;
+
+        Recording(Listener listener, Thresholds thresholds) {
+            this.listener = listener;
+            this.thresholds = thresholds;
+        }
+    }
+
+    private static volatile Recording recording;
+
+    /**
+     * Delivers events to the listener from now on, in place of any listener enabled before.
+     */
+    public static void enable(Listener listener, Thresholds thresholds) {
+        recording = new Recording(listener, thresholds);
+    }
+
+    public static void disable() {
+        recording = null;
+    }
+
+    public static boolean isEnabled() {
+        return recording != null;
+    }
+
+    static void lookup(String path, IgnoreDecision decision, long durationNanos, boolean cacheHit) {
+        Recording current = recording;
+        if (current != null && durationNanos >= current.thresholds.lookupNanos) {
+            current.listener.lookup(path, depthOf(path), decision, durationNanos, cacheHit);
+        }
+    }
+
+    static void rulesLoaded(String directory, CompiledIgnoreRules rules, long loadNanos, boolean cacheHit) {
+        Recording current = recording;
+        if (current != null && loadNanos >= current.thresholds.loadNanos) {
+            long characters = 0;
+            for (int i = 0; i < rules.ruleCount(); i++) {
+                characters += rules.definition(i).length() + 1;
+            }
+            current.listener.rulesLoaded(directory, characters, rules.ruleCount(), loadNanos, cacheHit);
+        }
+    }
+
+    static void walk(String rootDir, long entriesVisited, long subtreesPruned, long durationNanos) {
+        Recording current = recording;
+        if (current != null && durationNanos >= current.thresholds.walkNanos) {
+            current.listener.walk(rootDir, entriesVisited, subtreesPruned, durationNanos);
+        }
+    }
+
+    private static int depthOf(String path) {
+        int depth = 0;
+        boolean inSegment = false;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                inSegment = false;
+            } else if (!inSegment) {
+                inSegment = true;
+                depth++;
+            }
+        }
+        return depth;
+    }
+}
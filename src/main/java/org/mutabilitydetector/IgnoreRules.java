@@ -1,11 +1,25 @@
 package org.mutabilitydetector;
 
+import org.eclipse.jgit.lib.ObjectId;
+
 import java.util.List;
 
 public interface IgnoreRules {
     boolean exists();
     List<IgnoreRule> rules() throws FailedToRetrieveIgnoreRules;
 
+    /**
+     * @return the id of the git blob holding these rules, or null if it is not known. Rules with the same id are
+     * compiled only once when a {@link CompiledRulesCache} is in use.
+     */
+    ObjectId contentId();
+
+    /**
+     * @return a value which differs whenever the rules may have changed, and is cheaper to get than reading them, or
+     * null if only comparing {@link #contentId()} can tell
+     */
+    Object changeStamp();
+
     static class FailedToRetrieveIgnoreRules extends Exception {
         public FailedToRetrieveIgnoreRules(Exception cause) {
             super(cause);
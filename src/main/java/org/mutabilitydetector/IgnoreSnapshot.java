@@ -0,0 +1,48 @@
+package org.mutabilitydetector;
+
+/**
+ * The rules of a {@link BaseGitIgnore} pinned at one version. Lookups through a snapshot keep seeing the same rules
+ * however often the engine is reloaded, and never take a lock, so a batch of paths evaluated through one snapshot is
+ * consistent.
+ */
+public final class IgnoreSnapshot implements VcsIgnores {
+
+    private final BaseGitIgnore engine;
+    private final IgnoreTrie trie;
+    private final long version;
+
+    IgnoreSnapshot(BaseGitIgnore engine, IgnoreTrie trie, long version) {
+        this.engine = engine;
+        this.trie = trie;
+        this.version = version;
+    }
+
+    @Override
+    public boolean isIgnored(String relativePath) {
+        return explain(relativePath).isIgnored();
+    }
+
+    public IgnoreDecision explain(String relativePath) {
+        return trie.explain(relativePath, engine.rootDirectory.fromPath(relativePath).isDirectory());
+    }
+
+    /**
+     * @return the engine's {@link BaseGitIgnore#generation()} at which these rules were published
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return true if every .gitignore file was loaded before the snapshot was published. Otherwise, directories
+     * visited for the first time through this snapshot still have their .gitignore file read from disk.
+     */
+    public boolean isComplete() {
+        return trie.isPreloadComplete();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IgnoreSnapshot[version=%d, complete=%s]", version, isComplete());
+    }
+}
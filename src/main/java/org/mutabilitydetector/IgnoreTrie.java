@@ -0,0 +1,607 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.mutabilitydetector.IgnoreRules.FailedToRetrieveIgnoreRules;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mutabilitydetector.IgnoreRuleMatch.IS_IGNORED;
+
+/**
+ * The directories of a repository, each with the compiled rules of its .gitignore file attached.
+ * <p>
+ * Nodes are created the first time a lookup passes through their directory, and each .gitignore file is read and
+ * compiled only then. Lookups walk the path from the root down, and stop at the first directory which is ignored,
+ * as git does not look inside ignored directories. Whether a directory is ignored is remembered on its node, so the
+ * cost of a lookup depends on the depth of the path and the rules of the .gitignore files along it.
+ * <p>
+ * A nested repository, such as a vendored checkout or a submodule, is a boundary. Whether its directory is ignored
+ * is decided by the rules above it, but paths inside it only by its own .gitignore files, as they would be by a
+ * lookup in that repository. Each directory is checked for being a nested repository once, when its node is created.
+ */
+final class IgnoreTrie {
+
+    private static final CompiledIgnoreRules UNREADABLE = new CompiledIgnoreRules() {
+        @Override public int lastMatchingRule(String path, boolean isDirectory) { return -1; }
+        @Override public boolean matches(int rule, String path, boolean isDirectory) { return false; }
+        @Override public IgnoreRuleMatch resultOf(int rule) { throw new IndexOutOfBoundsException(); }
+        @Override public String definition(int rule) { throw new IndexOutOfBoundsException(); }
+        @Override public int ruleCount() { return 0; }
+    };
+
+    private static final int NODE_OVERHEAD_BYTES = 256;
+
+    private final RepositoryRoot rootDirectory;
+    private final BaseGitIgnore compiler;
+    private final Map<ObjectId, CompiledIgnoreRules> inherited;
+    private final Node root;
+    private final ConcurrentMap<String, Loaded> preloaded = new ConcurrentHashMap<>();
+    private volatile boolean preloadComplete = false;
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+    /**
+     * @param inherited compiled rules of an earlier trie, to be reused for .gitignore files with the same content
+     */
+    IgnoreTrie(RepositoryRoot rootDirectory, BaseGitIgnore compiler, Map<ObjectId, CompiledIgnoreRules> inherited) {
+        this(rootDirectory, compiler, inherited, null, null);
+    }
+
+    /**
+     * @param directory a directory whose .gitignore file is replaced by the given rules rather than read, or null
+     * @param rules the replacement rules, or null for no .gitignore file at all
+     */
+    IgnoreTrie(RepositoryRoot rootDirectory, BaseGitIgnore compiler, Map<ObjectId, CompiledIgnoreRules> inherited,
+               String directory, CompiledIgnoreRules rules) {
+        this.rootDirectory = rootDirectory;
+        this.compiler = compiler;
+        this.inherited = inherited;
+        if (directory != null) {
+            preloaded.put(directory, new Loaded(rules, null, null));
+        }
+        this.root = new Node(null, "", false, false, load("", rootDirectory, false));
+    }
+
+    IgnoreDecision explain(String pathToCheck, boolean isDirectory) {
+        String path = normalise(pathToCheck);
+        if (path.isEmpty()) {
+            return IgnoreDecision.NO_MATCHING_RULE;
+        }
+
+        Node current = root;
+        int start = 0;
+        int slash;
+        while ((slash = path.indexOf('/', start)) >= 0) {
+            current = current.child(path.substring(start, slash));
+            if (current.internal) {
+                return IgnoreDecision.INTERNAL;
+            }
+            IgnoreDecision directoryDecision = current.decision();
+            if (directoryDecision.isIgnored()) {
+                return directoryDecision;
+            }
+            start = slash + 1;
+        }
+
+        if (isDirectory) {
+            Node directory = current.child(path.substring(start));
+            return directory.internal ? IgnoreDecision.INTERNAL : directory.decision();
+        } else {
+            return evaluate(path, false, current.rulesAncestor);
+        }
+    }
+
+    /**
+     * As {@link #explain(String, boolean)}, also resolving the attributes of the path in the same descent. Unlike
+     * ignores, attributes apply inside ignored directories too, so the descent carries on past the first ignored
+     * directory, with the ignore decision already fixed. The .gitattributes file of each directory on the way is
+     * loaded once, onto its node.
+     */
+    IgnoreAndAttributes explainWithAttributes(String pathToCheck, boolean isDirectory) {
+        String path = normalise(pathToCheck);
+        if (path.isEmpty()) {
+            return new IgnoreAndAttributes(IgnoreDecision.NO_MATCHING_RULE, Collections.<String, String>emptyMap());
+        }
+
+        Node current = root;
+        IgnoreDecision decision = null;
+        int start = 0;
+        int slash;
+        while ((slash = path.indexOf('/', start)) >= 0) {
+            current = current.child(path.substring(start, slash));
+            if (current.internal) {
+                return new IgnoreAndAttributes(IgnoreDecision.INTERNAL, Collections.<String, String>emptyMap());
+            }
+            if (decision == null && current.decision().isIgnored()) {
+                decision = current.decision();
+            }
+            start = slash + 1;
+        }
+
+        if (decision == null) {
+            if (isDirectory) {
+                Node directory = current.child(path.substring(start));
+                if (directory.internal) {
+                    return new IgnoreAndAttributes(IgnoreDecision.INTERNAL, Collections.<String, String>emptyMap());
+                }
+                decision = directory.decision();
+            } else {
+                decision = evaluate(path, false, current.rulesAncestor);
+            }
+        }
+
+        Map<String, String> attributes = new TreeMap<>();
+        for (Node node = current; node != null; node = node.nestedRepository ? null : node.parent) {
+            CompiledAttributes nodeAttributes = node.attributes();
+            if (nodeAttributes != null) {
+                String relativePath = node.path.isEmpty() ? path : path.substring(node.path.length() + 1);
+                nodeAttributes.resolve(relativePath, isDirectory, attributes);
+            }
+        }
+        for (Iterator<String> values = attributes.values().iterator(); values.hasNext(); ) {
+            if (GitAttributeRule.UNSPECIFIED.equals(values.next())) {
+                values.remove();
+            }
+        }
+        return new IgnoreAndAttributes(decision, attributes);
+    }
+
+    /**
+     * @return the node of the repository root, for callers which walk down to directories themselves, see
+     * {@link Node#detachedChild(String)}
+     */
+    Node root() {
+        return root;
+    }
+
+    /**
+     * Keeps the entries of one directory which are not ignored. The directory and the rules which apply inside it are
+     * resolved once, then every entry is evaluated against them, without creating a node for it.
+     *
+     * @param entries the name of each entry, with whether it is a directory
+     * @return the names of the entries which are not ignored, in the order given. None if the directory is itself
+     * ignored, or internal to the repository.
+     */
+    List<String> notIgnored(String directoryPath, Map<String, Boolean> entries) {
+        return select(directoryPath, entries, false);
+    }
+
+    /**
+     * As {@link #notIgnored(String, Map)}, keeping the entries which are ignored instead: all of them if the
+     * directory is itself ignored, none if it is internal.
+     */
+    List<String> ignored(String directoryPath, Map<String, Boolean> entries) {
+        return select(directoryPath, entries, true);
+    }
+
+    private List<String> select(String directoryPath, Map<String, Boolean> entries, boolean ignored) {
+        String path = normalise(directoryPath);
+        Node directory = root;
+        if (!path.isEmpty()) {
+            for (String name: path.split("/")) {
+                directory = directory.child(name);
+                if (directory.internal) {
+                    return Collections.emptyList();
+                }
+                if (directory.decision().isIgnored()) {
+                    return ignored ? new ArrayList<>(entries.keySet()) : Collections.<String>emptyList();
+                }
+            }
+        }
+
+        List<String> selected = new ArrayList<>(entries.size());
+        String prefix = path.isEmpty() ? "" : path + "/";
+        for (Map.Entry<String, Boolean> entry: entries.entrySet()) {
+            String childPath = prefix + entry.getKey();
+            boolean isDirectory = entry.getValue();
+            if (isDirectory && entry.getKey().equals(Constants.DOT_GIT) && rootDirectory.fromPath(childPath).isInternal()) {
+                continue;
+            }
+            if (evaluate(childPath, isDirectory, directory.rulesAncestor).isIgnored() == ignored) {
+                selected.add(entry.getKey());
+            }
+        }
+        return selected;
+    }
+
+    private static String normalise(String path) {
+        int start = path.startsWith("/") ? 1 : 0;
+        int end = path.endsWith("/") && path.length() > start ? path.length() - 1 : path.length();
+        return start == 0 && end == path.length() ? path : path.substring(start, end);
+    }
+
+    /**
+     * Checks the path against the rules of each .gitignore file from the closest upwards, the first one with a
+     * matching rule decides.
+     */
+    private static IgnoreDecision evaluate(String path, boolean isDirectory, Node closestWithRules) {
+        for (Node node = closestWithRules; node != null; node = node.nestedRepository || node.parent == null ? null : node.parent.rulesAncestor) {
+            if (node.rules == UNREADABLE) {
+                return IgnoreDecision.NO_MATCHING_RULE;
+            }
+            String relativePath = node.path.isEmpty() ? path : path.substring(node.path.length() + 1);
+            int rule = node.rules.lastMatchingRule(relativePath, isDirectory);
+            if (rule >= 0) {
+                return new IgnoreDecision(node.rules.resultOf(rule) == IS_IGNORED, node.path, rule, node.rules.definition(rule));
+            }
+        }
+        return IgnoreDecision.NO_MATCHING_RULE;
+    }
+
+    /**
+     * Offers the compiled rules of a .gitignore file found ahead of any lookup. Directories whose node already exists
+     * have loaded their own rules, so only nodes created from now on will use them.
+     */
+    void preloaded(String directoryPath, IgnoreRules ignoreRules, CompiledIgnoreRules rules) {
+        preloaded.put(directoryPath, new Loaded(rules, ignoreRules.contentId(), ignoreRules.changeStamp()));
+    }
+
+    /**
+     * Declares that every .gitignore file in the repository has been preloaded, so directories without preloaded
+     * rules need not be checked for a .gitignore file at all.
+     */
+    void preloadComplete() {
+        preloadComplete = true;
+    }
+
+    /**
+     * @return true once every .gitignore file has been preloaded, after which lookups never read rules again
+     */
+    boolean isPreloadComplete() {
+        return preloadComplete;
+    }
+
+    BaseGitIgnore compiler() {
+        return compiler;
+    }
+
+    RepositoryRoot rootDirectory() {
+        return rootDirectory;
+    }
+
+    /**
+     * @return a rough size of the nodes created so far, and of their compiled rules unless those are held by a
+     * shared {@link CompiledRulesCache}, which accounts for them itself.
+     */
+    long estimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    /**
+     * @return how many .gitignore files lookups have found and loaded, whether or not their compiled rules were
+     * cached. Preloaded files are not counted.
+     */
+    long loads() {
+        return loads.get();
+    }
+
+    /**
+     * @return true if any .gitignore file this trie has loaded, or found to be missing, has since been changed,
+     * created or deleted. Only files whose {@link IgnoreRules#changeStamp()} has moved, or which have none, are read.
+     */
+    boolean hasChanged() {
+        return hasChanged(root);
+    }
+
+    private boolean hasChanged(Node node) {
+        if (!node.internal) {
+            IgnoreRules current = (node == root ? rootDirectory : rootDirectory.fromPath(node.path)).getIgnoreRules();
+            boolean exists = current.exists();
+            if (exists != (node.rules != null)) {
+                return true;
+            }
+            if (exists && !sameStamp(current.changeStamp(), node.changeStamp)
+                    && !sameContent(current.contentId(), node.contentId)) {
+                return true;
+            }
+        }
+        for (Node child: node.children.values()) {
+            if (hasChanged(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return every compiled rule set loaded so far whose content is known, for a later trie to inherit.
+     */
+    Map<ObjectId, CompiledIgnoreRules> compiledByContent() {
+        Map<ObjectId, CompiledIgnoreRules> compiled = new HashMap<>();
+        for (Loaded loaded: preloaded.values()) {
+            if (loaded.contentId != null) {
+                compiled.put(loaded.contentId, loaded.rules);
+            }
+        }
+        collectCompiledByContent(root, compiled);
+        return compiled;
+    }
+
+    /**
+     * @return the compiled rules of every .gitignore file loaded or preloaded so far, once each however many
+     * directories share them
+     */
+    Collection<CompiledIgnoreRules> loadedRules() {
+        Set<CompiledIgnoreRules> loaded = Collections.newSetFromMap(new IdentityHashMap<CompiledIgnoreRules, Boolean>());
+        for (Loaded preloadedRules: preloaded.values()) {
+            if (preloadedRules.rules != null && preloadedRules.rules != UNREADABLE) {
+                loaded.add(preloadedRules.rules);
+            }
+        }
+        collectLoadedRules(root, loaded);
+        return loaded;
+    }
+
+    /**
+     * @return the compiled rules of every .gitignore and .gitattributes file loaded or preloaded so far, once each,
+     * whether or not a shared {@link CompiledRulesCache} holds them too
+     */
+    Collection<CompiledIgnoreRules> heldRules() {
+        Collection<CompiledIgnoreRules> held = loadedRules();
+        collectLoadedAttributes(root, held);
+        return held;
+    }
+
+    /**
+     * @return how many lines {@link RuleSetOptimizer} dropped from each .gitignore file loaded or preloaded so far,
+     * by the repository relative path of its directory, for the files it dropped any from
+     */
+    Map<String, Integer> removedRulesByDirectory() {
+        Map<String, Integer> removed = new TreeMap<>();
+        for (Map.Entry<String, Loaded> preloadedRules: preloaded.entrySet()) {
+            if (preloadedRules.getValue().rules != null) {
+                putRemovedRules(preloadedRules.getKey(), preloadedRules.getValue().rules, removed);
+            }
+        }
+        collectRemovedRules(root, removed);
+        return removed;
+    }
+
+    private static void collectRemovedRules(Node node, Map<String, Integer> removed) {
+        if (node.rules != null) {
+            putRemovedRules(node.path, node.rules, removed);
+        }
+        for (Node child: node.children.values()) {
+            collectRemovedRules(child, removed);
+        }
+    }
+
+    private static void putRemovedRules(String directory, CompiledIgnoreRules rules, Map<String, Integer> removed) {
+        int removedRules = RuleSetOptimizer.removedRules(rules);
+        if (removedRules > 0) {
+            removed.put(directory, removedRules);
+        }
+    }
+
+    private static void collectLoadedRules(Node node, Set<CompiledIgnoreRules> loaded) {
+        if (node.rules != null && node.rules != UNREADABLE) {
+            loaded.add(node.rules);
+        }
+        for (Node child: node.children.values()) {
+            collectLoadedRules(child, loaded);
+        }
+    }
+
+    private static void collectLoadedAttributes(Node node, Collection<CompiledIgnoreRules> loaded) {
+        if (node.attributes != null) {
+            loaded.add(node.attributes);
+        }
+        for (Node child: node.children.values()) {
+            collectLoadedAttributes(child, loaded);
+        }
+    }
+
+    private static void collectCompiledByContent(Node node, Map<ObjectId, CompiledIgnoreRules> compiled) {
+        if (node.contentId != null) {
+            compiled.put(node.contentId, node.rules);
+        }
+        for (Node child: node.children.values()) {
+            collectCompiledByContent(child, compiled);
+        }
+    }
+
+    private static boolean sameStamp(Object current, Object loaded) {
+        return current != null && current.equals(loaded);
+    }
+
+    private static boolean sameContent(ObjectId current, ObjectId loaded) {
+        return current == null ? loaded == null : current.equals(loaded);
+    }
+
+    /**
+     * @param insideNestedRepository true for directories in a nested repository, which a preload does not visit, so
+     * are still checked for a .gitignore file once preloading is complete
+     */
+    private Loaded load(String path, RepositoryFile directory, boolean insideNestedRepository) {
+        Loaded loaded = preloaded.get(path);
+        if (loaded != null) {
+            return loaded;
+        }
+        return preloadComplete && !insideNestedRepository ? Loaded.NONE : load(path, directory);
+    }
+
+    private Loaded load(String path, RepositoryFile directory) {
+        IgnoreRules ignoreRules = directory.getIgnoreRules();
+        if (!ignoreRules.exists()) {
+            return Loaded.NONE;
+        }
+        loads.incrementAndGet();
+        long start = System.nanoTime();
+        ObjectId contentId = ignoreRules.contentId();
+        try {
+            CompiledIgnoreRules compiled = cached(contentId);
+            boolean cacheHit = compiled != null;
+            if (!cacheHit) {
+                compiled = remember(contentId, compiler.compileIgnoreFile(ignoreRules.rules()));
+            }
+            if (IgnoreEvents.isEnabled()) {
+                IgnoreEvents.rulesLoaded(path, compiled, System.nanoTime() - start, cacheHit);
+            }
+            return new Loaded(compiled, contentId, ignoreRules.changeStamp());
+        } catch (FailedToRetrieveIgnoreRules e) {
+            return new Loaded(UNREADABLE, null, null);
+        }
+    }
+
+    CompiledIgnoreRules cached(ObjectId contentId) {
+        if (contentId == null) {
+            return null;
+        }
+        CompiledRulesCache cache = compiler.rulesCache();
+        CompiledIgnoreRules compiled = cache == null ? null : cache.get(compiler, contentId);
+        return compiled != null ? compiled : inherited.get(contentId);
+    }
+
+    CompiledIgnoreRules remember(ObjectId contentId, CompiledIgnoreRules compiled) {
+        CompiledRulesCache cache = compiler.rulesCache();
+        if (cache != null && contentId != null) {
+            cache.put(compiler, contentId, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * @return the compiled .gitattributes file of the directory, or null if it has none, or it cannot be read
+     */
+    private CompiledAttributes loadAttributes(Node node) {
+        if (node.internal) {
+            return null;
+        }
+        IgnoreRules attributeRules = (node == root ? rootDirectory : rootDirectory.fromPath(node.path)).getAttributeRules();
+        if (!attributeRules.exists()) {
+            return null;
+        }
+        ObjectId contentId = attributeRules.contentId();
+        CompiledRulesCache cache = compiler.rulesCache();
+        CompiledIgnoreRules cached = cache == null || contentId == null ? null : cache.get(compiler, contentId, true);
+        if (cached instanceof CompiledAttributes) {
+            return (CompiledAttributes) cached;
+        }
+        try {
+            CompiledAttributes compiled = CompiledAttributes.compile(compiler, attributeRules.rules());
+            if (cache != null && contentId != null) {
+                cache.put(compiler, contentId, true, compiled);
+            }
+            return compiled;
+        } catch (FailedToRetrieveIgnoreRules e) {
+            return null;
+        }
+    }
+
+    private static final class Loaded {
+        static final Loaded NONE = new Loaded(null, null, null);
+
+        final CompiledIgnoreRules rules;
+        final ObjectId contentId;
+        final Object changeStamp;
+
+        Loaded(CompiledIgnoreRules rules, ObjectId contentId, Object changeStamp) {
+            this.rules = rules;
+            this.contentId = contentId;
+            this.changeStamp = changeStamp;
+        }
+    }
+
+    final class Node {
+        final Node parent;
+        final String path;
+        final boolean internal;
+        final boolean nestedRepository;
+        final boolean insideNestedRepository;
+        final CompiledIgnoreRules rules;
+        final ObjectId contentId;
+        final Object changeStamp;
+        final Node rulesAncestor;
+        final ConcurrentMap<String, Node> children = new ConcurrentHashMap<>();
+        volatile IgnoreDecision decision;
+        private CompiledAttributes attributes;
+        private volatile boolean attributesLoaded;
+
+        Node(Node parent, String path, boolean internal, boolean nestedRepository, Loaded loaded) {
+            this.parent = parent;
+            this.path = path;
+            this.internal = internal;
+            this.nestedRepository = nestedRepository;
+            this.insideNestedRepository = nestedRepository || (parent != null && parent.insideNestedRepository);
+            this.rules = loaded.rules;
+            this.contentId = loaded.contentId;
+            this.changeStamp = loaded.changeStamp;
+            this.rulesAncestor = rules != null ? this : (parent == null || nestedRepository ? null : parent.rulesAncestor);
+
+            long size = NODE_OVERHEAD_BYTES + 2L * path.length();
+            if (rules != null && compiler.rulesCache() == null) {
+                size += CompiledRulesCache.estimatedBytes(rules);
+            }
+            estimatedBytes.addAndGet(size);
+        }
+
+        Node child(String name) {
+            Node child = children.get(name);
+            if (child == null) {
+                Node created = detachedChild(name);
+                child = children.putIfAbsent(name, created);
+                if (child == null) {
+                    child = created;
+                }
+            }
+            return child;
+        }
+
+        /**
+         * Creates the node of a child directory as {@link #child(String)} does, without keeping it, for callers
+         * which visit each directory once and drop its node after.
+         */
+        Node detachedChild(String name) {
+            String childPath = path.isEmpty() ? name : path + "/" + name;
+            RepositoryFile directory = rootDirectory.fromPath(childPath);
+            boolean childIsInternal = internal || directory.isInternal();
+            boolean childIsNested = !childIsInternal && directory.isNestedRepository();
+            return new Node(this, childPath, childIsInternal, childIsNested, childIsInternal
+                    ? Loaded.NONE
+                    : load(childPath, directory, childIsNested || insideNestedRepository));
+        }
+
+        /**
+         * Whether this directory is ignored by the rules of the directories above it, assuming none of them are
+         * ignored themselves.
+         */
+        IgnoreDecision decision() {
+            IgnoreDecision known = decision;
+            if (known == null) {
+                known = evaluate(path, true, parent.rulesAncestor);
+                decision = known;
+            }
+            return known;
+        }
+
+        /**
+         * Whether a file in this directory is ignored, assuming neither this directory nor any above it is.
+         *
+         * @param filePath the repository relative path of the file
+         */
+        IgnoreDecision fileDecision(String filePath) {
+            return evaluate(filePath, false, rulesAncestor);
+        }
+
+        CompiledAttributes attributes() {
+            if (!attributesLoaded) {
+                attributes = loadAttributes(this);
+                attributesLoaded = true;
+            }
+            return attributes;
+        }
+    }
+}
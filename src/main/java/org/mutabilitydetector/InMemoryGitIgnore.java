@@ -0,0 +1,251 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A repository held entirely in memory: a list of paths, with whether each is a directory, and the content of its
+ * .gitignore files. Nothing is read from disk, so evaluation is deterministic and free of I/O, for path lists and
+ * rules which come from elsewhere, such as a build cache manifest, or for benchmarks.
+ * <p>
+ * The directories holding any listed path, or a .gitignore file, are directories too. Any other path is a file. A
+ * directory with a listed .git entry, other than the root, is a nested repository.
+ */
+public final class InMemoryGitIgnore {
+    private InMemoryGitIgnore() {}
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * @param paths repository relative paths, each with whether it is a directory
+     * @param gitignores the content of each .gitignore file, by the repository relative path of its directory, empty
+     * for the repository root
+     */
+    public static RepositoryRoot root(Map<String, Boolean> paths, Map<String, String> gitignores) {
+        return root(paths, gitignores, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @param gitattributes the content of each .gitattributes file, by the repository relative path of its directory
+     */
+    public static RepositoryRoot root(Map<String, Boolean> paths, Map<String, String> gitignores,
+                                      Map<String, String> gitattributes) {
+        Set<String> directories = new HashSet<>();
+        Set<String> nestedRepositories = new HashSet<>();
+        for (Map.Entry<String, Boolean> path: paths.entrySet()) {
+            String normalised = normalise(path.getKey());
+            if (path.getValue()) {
+                directories.add(normalised);
+            }
+            addParentsOf(normalised, directories);
+            if (normalised.endsWith("/" + Constants.DOT_GIT)) {
+                nestedRepositories.add(normalised.substring(0, normalised.length() - Constants.DOT_GIT.length() - 1));
+            }
+        }
+
+        Map<String, InMemoryIgnoreRules> ignoreRules = rulesByDirectory(gitignores, false, directories);
+        Map<String, InMemoryIgnoreRules> attributeRules = rulesByDirectory(gitattributes, true, directories);
+        return new InMemoryRepositoryRoot(new Repository(directories, nestedRepositories, ignoreRules, attributeRules));
+    }
+
+    private static Map<String, InMemoryIgnoreRules> rulesByDirectory(Map<String, String> contents, boolean attributes,
+                                                                     Set<String> directories) {
+        Map<String, InMemoryIgnoreRules> rules = new HashMap<>();
+        for (Map.Entry<String, String> file: contents.entrySet()) {
+            String directory = normalise(file.getKey());
+            rules.put(directory, new InMemoryIgnoreRules(file.getValue().getBytes(UTF_8), attributes));
+            if (!directory.isEmpty()) {
+                directories.add(directory);
+                addParentsOf(directory, directories);
+            }
+        }
+        return rules;
+    }
+
+    private static void addParentsOf(String path, Set<String> directories) {
+        for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+            if (!directories.add(path.substring(0, slash))) {
+                return;
+            }
+        }
+    }
+
+    private static String normalise(String path) {
+        int start = path.startsWith("/") ? 1 : 0;
+        int end = path.endsWith("/") && path.length() > start ? path.length() - 1 : path.length();
+        return path.substring(start, end);
+    }
+
+    private static final class Repository {
+        final Set<String> directories;
+        final Set<String> nestedRepositories;
+        final Map<String, InMemoryIgnoreRules> ignoreRules;
+        final Map<String, InMemoryIgnoreRules> attributeRules;
+
+        Repository(Set<String> directories, Set<String> nestedRepositories, Map<String, InMemoryIgnoreRules> ignoreRules,
+                   Map<String, InMemoryIgnoreRules> attributeRules) {
+            this.directories = directories;
+            this.nestedRepositories = nestedRepositories;
+            this.ignoreRules = ignoreRules;
+            this.attributeRules = attributeRules;
+        }
+    }
+
+    public static class InMemoryRepositoryFile implements RepositoryFile {
+        private final Repository repository;
+        protected final String path;
+
+        private InMemoryRepositoryFile(Repository repository, String path) {
+            this.repository = repository;
+            this.path = path;
+        }
+
+        @Override
+        public RepositoryFile getParent() {
+            int lastSlash = path.lastIndexOf('/');
+            return lastSlash < 0
+                ? new InMemoryRepositoryRoot(repository)
+                : new InMemoryRepositoryFile(repository, path.substring(0, lastSlash));
+        }
+
+        @Override
+        public IgnoreRules getIgnoreRules() {
+            InMemoryIgnoreRules rules = repository.ignoreRules.get(path);
+            return rules != null ? rules : InMemoryIgnoreRules.NONE;
+        }
+
+        @Override
+        public IgnoreRules getAttributeRules() {
+            InMemoryIgnoreRules rules = repository.attributeRules.get(path);
+            return rules != null ? rules : InMemoryIgnoreRules.NONE;
+        }
+
+        @Override
+        public String getRepositoryRelativePath() {
+            return path;
+        }
+
+        @Override
+        public String pathRelativeTo(RepositoryFile ancestor) {
+            String ancestorPath = ((InMemoryRepositoryFile) ancestor).path;
+            return ancestorPath.isEmpty() ? path : path.substring(ancestorPath.length() + 1);
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return repository.directories.contains(path);
+        }
+
+        @Override
+        public boolean isRoot() {
+            return false;
+        }
+
+        @Override
+        public boolean isInternal() {
+            return FileBasedGitIgnore.isInternal(path);
+        }
+
+        @Override
+        public boolean isNestedRepository() {
+            return repository.nestedRepositories.contains(path);
+        }
+    }
+
+    public static final class InMemoryRepositoryRoot extends InMemoryRepositoryFile implements RepositoryRoot {
+
+        private InMemoryRepositoryRoot(Repository repository) {
+            super(repository, "");
+        }
+
+        @Override
+        public InMemoryRepositoryFile fromPath(String path) {
+            return new InMemoryRepositoryFile(super.repository, normalise(path));
+        }
+
+        @Override
+        public boolean isIgnoreCase() {
+            return false;
+        }
+
+        @Override
+        public boolean isRoot() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return true;
+        }
+
+        @Override
+        public String getRepositoryRelativePath() {
+            return "/";
+        }
+
+        @Override
+        public boolean isInternal() {
+            return false;
+        }
+
+        @Override
+        public boolean isNestedRepository() {
+            return false;
+        }
+    }
+
+    public static final class InMemoryIgnoreRules implements IgnoreRules {
+        static final InMemoryIgnoreRules NONE = new InMemoryIgnoreRules(null, false);
+
+        private final byte[] content;
+        private final boolean attributes;
+        private final ObjectId contentId;
+
+        private InMemoryIgnoreRules(byte[] content, boolean attributes) {
+            this.content = content;
+            this.attributes = attributes;
+            this.contentId = content == null ? null : new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, content);
+        }
+
+        @Override
+        public boolean exists() {
+            return content != null;
+        }
+
+        @Override
+        public List<IgnoreRule> rules() throws FailedToRetrieveIgnoreRules {
+            if (content == null) {
+                return Collections.emptyList();
+            }
+            try {
+                ByteArrayInputStream input = new ByteArrayInputStream(content);
+                return attributes
+                    ? GitAttributeRule.attributeEntries(input)
+                    : FileBasedGitIgnore.GitIgnoreRules.ignoreEntries(input);
+            } catch (IOException e) {
+                throw new FailedToRetrieveIgnoreRules(e);
+            }
+        }
+
+        @Override
+        public ObjectId contentId() {
+            return contentId;
+        }
+
+        @Override
+        public Object changeStamp() {
+            return contentId;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.NotIgnoredFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Skips paths ignored by the rules of a {@link BaseGitIgnore}, for use in place of JGit's {@link NotIgnoredFilter}.
+ * <p>
+ * An ignored directory is excluded before the walk descends into it, so nothing beneath it is visited. The rules are
+ * those the engine has already compiled, and any it compiles are kept for the next walk, so repeated walks with the
+ * same engine read and parse each .gitignore file once. The filter holds no state of its own, and may be shared by
+ * walks on any number of threads.
+ */
+public final class NotIgnoredByRulesFilter extends TreeFilter {
+
+    private final BaseGitIgnore rules;
+
+    public NotIgnoredByRulesFilter(BaseGitIgnore rules) {
+        this.rules = rules;
+    }
+
+    @Override
+    public boolean include(TreeWalk walker) {
+        return !rules.explain(walker.getPathString(), isDirectory(walker)).isIgnored();
+    }
+
+    /**
+     * A nested repository, whether a submodule or a checkout inside the working tree, is walked as a gitlink rather
+     * than a subtree. Git still matches it as a directory, so rules such as {@code vendor/} apply to it.
+     */
+    private static boolean isDirectory(TreeWalk walker) {
+        if (walker.isSubtree()) {
+            return true;
+        }
+        for (int i = 0; i < walker.getTreeCount(); i++) {
+            if (FileMode.GITLINK.equals(walker.getRawMode(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean shouldBeRecursive() {
+        return false;
+    }
+
+    @Override
+    public TreeFilter clone() {
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "NotIgnoredByRules(" + rules.getClass().getSimpleName() + ")";
+    }
+}
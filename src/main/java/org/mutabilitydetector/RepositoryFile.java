@@ -3,9 +3,16 @@ package org.mutabilitydetector;
 public interface RepositoryFile {
     RepositoryFile getParent();
     IgnoreRules getIgnoreRules();
+    IgnoreRules getAttributeRules();
     String getRepositoryRelativePath();
     String pathRelativeTo(RepositoryFile ancestor);
     boolean isDirectory();
     boolean isRoot();
     boolean isInternal();
+
+    /**
+     * @return true for a directory, other than the root, which is the root of another repository: a nested checkout
+     * or a submodule, with rules of its own
+     */
+    boolean isNestedRepository();
 }
@@ -2,4 +2,9 @@ package org.mutabilitydetector;
 
 public interface RepositoryRoot extends RepositoryFile {
     RepositoryFile fromPath(String path);
+
+    /**
+     * @return the repository's core.ignorecase setting, under which rules match paths regardless of case
+     */
+    boolean isIgnoreCase();
 }
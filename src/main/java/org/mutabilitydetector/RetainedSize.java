@@ -0,0 +1,9 @@
+package org.mutabilitydetector;
+
+/**
+ * Implemented by engines which can estimate how much memory they hold on to, so that callers keeping many of them
+ * can stay within a budget.
+ */
+public interface RetainedSize {
+    long estimatedRetainedBytes();
+}
@@ -0,0 +1,153 @@
+package org.mutabilitydetector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Drops the lines of a .gitignore file which can never be the last rule to match a path, before the rest are
+ * compiled by an engine:
+ * <ul>
+ *     <li>blank lines and comments, which are not rules at all</li>
+ *     <li>a rule with the same pattern as a later one, whether or not either is negated, as the later one matches
+ *     every path the earlier one does</li>
+ *     <li>every rule before a {@code *} or {@code !*}, which matches every path</li>
+ * </ul>
+ * As the last matching rule decides, dropping these changes no decision. Rules keep the index of their line in the
+ * file, so decisions still name the line which decided them.
+ */
+final class RuleSetOptimizer {
+    private RuleSetOptimizer() {}
+
+    private static final String MATCHES_EVERYTHING = "*";
+
+    static CompiledIgnoreRules optimize(BaseGitIgnore compiler, List<IgnoreRule> rules) {
+        boolean[] notRules = new boolean[rules.size()];
+        boolean[] shadowed = new boolean[rules.size()];
+        Set<String> laterPatterns = new HashSet<>();
+        boolean everythingMatchedLater = false;
+        int removed = 0;
+
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            String definition = rules.get(i).definition();
+            String pattern = definition.startsWith("!") ? definition.substring(1) : definition;
+            if (definition.isEmpty() || definition.startsWith("#")) {
+                notRules[i] = true;
+                removed++;
+            } else if (everythingMatchedLater || !laterPatterns.add(pattern)) {
+                shadowed[i] = true;
+                removed++;
+            } else if (pattern.equals(MATCHES_EVERYTHING)) {
+                everythingMatchedLater = true;
+            }
+        }
+
+        if (removed == 0) {
+            return compiler.compile(rules);
+        }
+        List<IgnoreRule> kept = new ArrayList<>(rules.size() - removed);
+        int[] lines = new int[rules.size() - removed];
+        for (int i = 0; i < rules.size(); i++) {
+            if (!notRules[i] && !shadowed[i]) {
+                lines[kept.size()] = i;
+                kept.add(rules.get(i));
+            }
+        }
+        return new OptimizedRules(compiler, rules, compiler.compile(kept), lines, notRules, removed);
+    }
+
+    /**
+     * @return how many lines of the file were dropped, or 0 for rules which were not optimized
+     */
+    static int removedRules(CompiledIgnoreRules rules) {
+        return rules instanceof OptimizedRules ? ((OptimizedRules) rules).removed : 0;
+    }
+
+    /**
+     * @return the compiled rules which are evaluated, those kept if the rules were optimized
+     */
+    static CompiledIgnoreRules evaluated(CompiledIgnoreRules rules) {
+        return rules instanceof OptimizedRules ? ((OptimizedRules) rules).kept : rules;
+    }
+
+    static final class OptimizedRules implements CompiledIgnoreRules {
+
+        private final BaseGitIgnore compiler;
+        private final List<IgnoreRule> original;
+        private final CompiledIgnoreRules kept;
+        private final int[] lines;
+        private final int[] keptIndexOfLine;
+        private final boolean[] notRules;
+        private final int removed;
+        private volatile CompiledIgnoreRules all;
+
+        /**
+         * @param lines the line of each kept rule
+         */
+        OptimizedRules(BaseGitIgnore compiler, List<IgnoreRule> original, CompiledIgnoreRules kept, int[] lines,
+                       boolean[] notRules, int removed) {
+            this.compiler = compiler;
+            this.original = original;
+            this.kept = kept;
+            this.lines = lines;
+            this.notRules = notRules;
+            this.removed = removed;
+            this.keptIndexOfLine = new int[original.size()];
+            Arrays.fill(keptIndexOfLine, -1);
+            for (int i = 0; i < lines.length; i++) {
+                keptIndexOfLine[lines[i]] = i;
+            }
+        }
+
+        @Override
+        public int lastMatchingRule(String path, boolean isDirectory) {
+            int rule = kept.lastMatchingRule(path, isDirectory);
+            return rule < 0 ? -1 : lines[rule];
+        }
+
+        /**
+         * Shadowed rules still match the paths they always did, which only the whole file, compiled the first time
+         * one is asked about, can say.
+         */
+        @Override
+        public boolean matches(int rule, String path, boolean isDirectory) {
+            int keptIndex = keptIndexOfLine[rule];
+            if (keptIndex >= 0) {
+                return kept.matches(keptIndex, path, isDirectory);
+            }
+            return !notRules[rule] && all().matches(rule, path, isDirectory);
+        }
+
+        @Override
+        public IgnoreRuleMatch resultOf(int rule) {
+            int keptIndex = keptIndexOfLine[rule];
+            return keptIndex >= 0 ? kept.resultOf(keptIndex) : all().resultOf(rule);
+        }
+
+        @Override
+        public String definition(int rule) {
+            return original.get(rule).definition();
+        }
+
+        @Override
+        public int ruleCount() {
+            return original.size();
+        }
+
+        private CompiledIgnoreRules all() {
+            CompiledIgnoreRules compiled = all;
+            if (compiled == null) {
+                compiled = compiler.compile(original);
+                all = compiled;
+            }
+            return compiled;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("OptimizedRules[rules=%d, removed=%d]", original.size(), removed);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package org.mutabilitydetector;
+
+/**
+ * A counter which moves whenever the rules deciding what is ignored may have changed, so that anything derived from
+ * them can be discarded in bulk.
+ */
+public interface RulesGeneration {
+    long generation();
+}
@@ -0,0 +1,202 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.mutabilitydetector.IgnoreRules.FailedToRetrieveIgnoreRules;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds every .gitignore file of a repository in one directory scan, and parses and compiles them in parallel, so
+ * the first lookups do not pay for reading and compiling rules.
+ * <p>
+ * Lookups can be served while the preload is running, they load any rules they need which have not been preloaded
+ * yet. Parse times, which include reading each file, and compile times are summed across threads, the elapsed time
+ * is from start until ready.
+ */
+public final class RulesPreload {
+
+    private final File rootDir;
+    private final IgnoreTrie trie;
+    private final ExecutorService executor;
+
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final AtomicInteger filesLoaded = new AtomicInteger();
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final AtomicLong compileNanos = new AtomicLong();
+    private final long startedAt = System.nanoTime();
+    private volatile long discoveryNanos;
+    private volatile long elapsedNanos;
+    private volatile boolean failed = false;
+
+    private RulesPreload(File rootDir, IgnoreTrie trie, ExecutorService executor) {
+        this.rootDir = rootDir;
+        this.trie = trie;
+        this.executor = executor;
+    }
+
+    static RulesPreload start(File rootDir, IgnoreTrie trie, ExecutorService executor) {
+        final RulesPreload preload = new RulesPreload(rootDir, trie, executor);
+        executor.execute(new Runnable() {
+            @Override public void run() {
+                preload.discover();
+            }
+        });
+        return preload;
+    }
+
+    private void discover() {
+        final Path root = rootDir.toPath();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    String relativePath = relativePath(root, dir);
+                    if (relativePath.isEmpty()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    RepositoryFile directory = trie.rootDirectory().fromPath(relativePath);
+                    return directory.isInternal() || directory.isNestedRepository()
+                            ? FileVisitResult.SKIP_SUBTREE
+                            : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && file.getFileName().toString().equals(Constants.GITIGNORE_FILENAME)) {
+                        submit(relativePath(root, file.getParent()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    failed = true;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            failed = true;
+        }
+        discoveryNanos = System.nanoTime() - startedAt;
+        finishOne();
+    }
+
+    private static String relativePath(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private void submit(final String directoryPath) {
+        pending.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override public void run() {
+                try {
+                    load(directoryPath);
+                } finally {
+                    finishOne();
+                }
+            }
+        });
+    }
+
+    private void load(String directoryPath) {
+        RepositoryFile directory = directoryPath.isEmpty() ? trie.rootDirectory() : trie.rootDirectory().fromPath(directoryPath);
+        try {
+            long start = System.nanoTime();
+            IgnoreRules ignoreRules = directory.getIgnoreRules();
+            ObjectId contentId = ignoreRules.contentId();
+            CompiledIgnoreRules compiled = trie.cached(contentId);
+            boolean cacheHit = compiled != null;
+            long compileStart = System.nanoTime();
+            if (!cacheHit) {
+                List<IgnoreRule> rules = ignoreRules.rules();
+                compileStart = System.nanoTime();
+                compiled = trie.remember(contentId, trie.compiler().compileIgnoreFile(rules));
+                compileNanos.addAndGet(System.nanoTime() - compileStart);
+            }
+            parseNanos.addAndGet(compileStart - start);
+            if (IgnoreEvents.isEnabled()) {
+                IgnoreEvents.rulesLoaded(directoryPath, compiled, System.nanoTime() - start, cacheHit);
+            }
+            filesLoaded.incrementAndGet();
+            trie.preloaded(directoryPath, ignoreRules, compiled);
+        } catch (FailedToRetrieveIgnoreRules | RuntimeException e) {
+            // Left for the lookup to load, and report, itself.
+            failed = true;
+        }
+    }
+
+    private void finishOne() {
+        if (pending.decrementAndGet() == 0) {
+            if (!failed) {
+                trie.preloadComplete();
+            }
+            elapsedNanos = System.nanoTime() - startedAt;
+            ready.countDown();
+        }
+    }
+
+    public boolean isReady() {
+        return ready.getCount() == 0;
+    }
+
+    public void awaitReady() throws InterruptedException {
+        ready.await();
+    }
+
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.await(timeout, unit);
+    }
+
+    /**
+     * @return false if some directory or .gitignore file could not be read, in which case lookups still check for
+     * .gitignore files in directories which were not preloaded.
+     */
+    public boolean isComplete() {
+        return isReady() && !failed;
+    }
+
+    public int filesLoaded() {
+        return filesLoaded.get();
+    }
+
+    public long discoveryNanos() {
+        return discoveryNanos;
+    }
+
+    /**
+     * @return the time spent reading and parsing .gitignore files, including reading those whose compiled rules were
+     * cached already
+     */
+    public long parseNanos() {
+        return parseNanos.get();
+    }
+
+    public long compileNanos() {
+        return compileNanos.get();
+    }
+
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RulesPreload[ready=%s, complete=%s, files=%d, discovery=%.1fms, parse=%.1fms, compile=%.1fms, elapsed=%.1fms]",
+                isReady(), isComplete(), filesLoaded(),
+                discoveryNanos / 1e6, parseNanos() / 1e6, compileNanos() / 1e6, elapsedNanos / 1e6);
+    }
+}
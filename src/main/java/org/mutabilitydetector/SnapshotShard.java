@@ -0,0 +1,321 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Part of a {@link GitIgnoresByWalkingFileSystem} snapshot, walked by one of several workers, each covering some of
+ * the path prefixes of the working tree. Shards are written in a simple binary format, and merged into one
+ * snapshot by a k-way merge of their sorted entries.
+ * <p>
+ * The format is the magic number {@code GISS}, a version, the number of entries, then each entry as a length and
+ * that many bytes of UTF-8. Lengths and counts are big-endian 32 bit integers, and entries are in ascending
+ * {@link String#compareTo(String)} order without duplicates. A plan is the magic number {@code GISP}, the same
+ * version, the number of shards, then the prefixes of each shard as a count and entries in the same way.
+ * <p>
+ * The plan is made once, before any worker starts:
+ * <pre>
+ *   java org.mutabilitydetector.SnapshotShard plan &lt;repository root&gt; &lt;shard count&gt; &lt;plan file&gt;
+ * </pre>
+ * then each worker runs, in its own JVM:
+ * <pre>
+ *   java org.mutabilitydetector.SnapshotShard scan &lt;repository root&gt; &lt;plan file&gt; &lt;shard index&gt; &lt;shard file&gt;
+ * </pre>
+ * and the shards are then combined with:
+ * <pre>
+ *   java org.mutabilitydetector.SnapshotShard merge &lt;merged file&gt; &lt;shard file&gt;...
+ * </pre>
+ */
+public final class SnapshotShard {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x47495353;
+    private static final int PLAN_MAGIC = 0x47495350;
+    private static final int VERSION = 1;
+
+    private static final int PREFIXES_PER_SHARD = 8;
+    private static final int MAXIMUM_PREFIX_DEPTH = 3;
+
+    private final List<String> entries;
+
+    private SnapshotShard(List<String> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Splits the working tree into the prefixes each of the given number of shards is to walk. The plan is made once
+     * and handed to every worker, rather than each worker listing the working tree for itself, so the shards cover
+     * it exactly once between them even if it changes while the workers start.
+     */
+    public static List<List<String>> plan(File rootDir, int shardCount) {
+        List<String> prefixes = prefixes(rootDir, shardCount);
+        List<List<String>> plan = new ArrayList<>(shardCount);
+        for (int shardIndex = 0; shardIndex < shardCount; shardIndex++) {
+            List<String> assigned = new ArrayList<>();
+            for (int i = shardIndex; i < prefixes.size(); i += shardCount) {
+                assigned.add(prefixes.get(i));
+            }
+            plan.add(assigned);
+        }
+        return plan;
+    }
+
+    /**
+     * Walks the files and directories under the given repository relative paths which are not ignored, by the same
+     * rules the prefixes were planned with.
+     */
+    public static SnapshotShard scan(File rootDir, List<String> prefixes) throws IOException {
+        if (prefixes.isEmpty()) {
+            return new SnapshotShard(Collections.<String>emptyList());
+        }
+        Repository repository = GitIgnoresByWalkingFileSystem.openRepository(rootDir.getAbsolutePath());
+        try {
+            TreeFilter notIgnored = new NotIgnoredByRulesFilter(GitIgnoresByGlob.fromRootDir(rootDir.getAbsolutePath()));
+            List<String> entries = new ArrayList<>(GitIgnoresByWalkingFileSystem.walk(repository,
+                    AndTreeFilter.create(PathFilterGroup.createFromStrings(prefixes), notIgnored), true));
+            Collections.sort(entries);
+            return new SnapshotShard(entries);
+        } finally {
+            repository.close();
+        }
+    }
+
+    /**
+     * Splits the working tree into prefixes, a level at a time, until there are enough for every shard to take
+     * several, so that the work is spread evenly even when one directory holds most of the tree. Ignored paths are
+     * left out, so no shard is given a prefix with nothing to walk, and ignored directories are never listed.
+     */
+    static List<String> prefixes(File rootDir, int shardCount) {
+        GitIgnoresByGlob rules = GitIgnoresByGlob.fromRootDir(rootDir.getAbsolutePath());
+        List<String> prefixes = children(rootDir, "", rules);
+        for (int depth = 1; depth < MAXIMUM_PREFIX_DEPTH && prefixes.size() < shardCount * PREFIXES_PER_SHARD; depth++) {
+            List<String> deeper = new ArrayList<>();
+            for (String prefix: prefixes) {
+                File file = new File(rootDir, prefix);
+                boolean isDirectory = Files.isDirectory(file.toPath(), LinkOption.NOFOLLOW_LINKS);
+                List<String> children = isDirectory && !FileBasedGitIgnore.isNestedRepository(file)
+                        ? children(rootDir, prefix, rules)
+                        : null;
+                if (children == null || children.isEmpty()) {
+                    deeper.add(prefix);
+                } else {
+                    deeper.addAll(children);
+                }
+            }
+            prefixes = deeper;
+        }
+        Collections.sort(prefixes);
+        return prefixes;
+    }
+
+    private static List<String> children(File rootDir, String directory, BaseGitIgnore rules) {
+        String[] names = new File(rootDir, directory).list();
+        List<String> children = new ArrayList<>();
+        if (names == null) {
+            return children;
+        }
+        Arrays.sort(names);
+        for (String name: names) {
+            if (directory.isEmpty() && name.equals(Constants.DOT_GIT)) {
+                continue;
+            }
+            String child = directory.isEmpty() ? name : directory + "/" + name;
+            boolean isDirectory = Files.isDirectory(new File(rootDir, child).toPath(), LinkOption.NOFOLLOW_LINKS);
+            if (!rules.explain(child, isDirectory).isIgnored()) {
+                children.add(child);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Merges shards by k-way merge of their entries. Entries found in more than one shard are kept once.
+     */
+    public static SnapshotShard merge(List<SnapshotShard> shards) {
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>(Math.max(shards.size(), 1));
+        int total = 0;
+        for (SnapshotShard shard: shards) {
+            total += shard.entries.size();
+            if (!shard.entries.isEmpty()) {
+                cursors.add(new Cursor(shard.entries));
+            }
+        }
+
+        List<String> merged = new ArrayList<>(total);
+        while (!cursors.isEmpty()) {
+            Cursor smallest = cursors.poll();
+            String entry = smallest.current();
+            if (merged.isEmpty() || !merged.get(merged.size() - 1).equals(entry)) {
+                merged.add(entry);
+            }
+            if (smallest.advance()) {
+                cursors.add(smallest);
+            }
+        }
+        return new SnapshotShard(merged);
+    }
+
+    public VcsIgnores toVcsIgnores() {
+        return new GitIgnoresByWalkingFileSystem(new HashSet<>(entries));
+    }
+
+    public List<String> entries() {
+        return entries;
+    }
+
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeEntries(entries, out);
+        out.flush();
+    }
+
+    public static SnapshotShard read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input, 64 * 1024));
+        readHeader(in, MAGIC, "snapshot shard");
+        return new SnapshotShard(readEntries(in));
+    }
+
+    public static void writePlan(List<List<String>> plan, File file) throws IOException {
+        try (OutputStream output = new FileOutputStream(file)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, 64 * 1024));
+            out.writeInt(PLAN_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(plan.size());
+            for (List<String> prefixes: plan) {
+                writeEntries(prefixes, out);
+            }
+            out.flush();
+        }
+    }
+
+    public static List<List<String>> readPlan(File file) throws IOException {
+        try (InputStream input = new FileInputStream(file)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(input, 64 * 1024));
+            readHeader(in, PLAN_MAGIC, "snapshot shard plan");
+            int shardCount = in.readInt();
+            List<List<String>> plan = new ArrayList<>(shardCount);
+            for (int i = 0; i < shardCount; i++) {
+                plan.add(readEntries(in));
+            }
+            return plan;
+        }
+    }
+
+    private static void writeEntries(List<String> entries, DataOutputStream out) throws IOException {
+        out.writeInt(entries.size());
+        for (String entry: entries) {
+            byte[] bytes = entry.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void readHeader(DataInputStream in, int magic, String description) throws IOException {
+        if (in.readInt() != magic) {
+            throw new IOException("Not a " + description);
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported " + description + " version " + version);
+        }
+    }
+
+    private static List<String> readEntries(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            String entry = new String(bytes, UTF_8);
+            if (!entries.isEmpty() && entries.get(i - 1).compareTo(entry) >= 0) {
+                throw new IOException("Snapshot shard entries are not in order at " + entry);
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    public static SnapshotShard read(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    public void write(File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            write(out);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 4 && args[0].equals("plan")) {
+            writePlan(plan(new File(args[1]), Integer.parseInt(args[2])), new File(args[3]));
+        } else if (args.length == 5 && args[0].equals("scan")) {
+            List<List<String>> plan = readPlan(new File(args[2]));
+            scan(new File(args[1]), plan.get(Integer.parseInt(args[3]))).write(new File(args[4]));
+        } else if (args.length >= 2 && args[0].equals("merge")) {
+            List<SnapshotShard> shards = new ArrayList<>();
+            for (int i = 2; i < args.length; i++) {
+                shards.add(read(new File(args[i])));
+            }
+            merge(shards).write(new File(args[1]));
+        } else {
+            System.err.println("usage: SnapshotShard plan <repository root> <shard count> <plan file>");
+            System.err.println("       SnapshotShard scan <repository root> <plan file> <shard index> <shard file>");
+            System.err.println("       SnapshotShard merge <merged file> <shard file>...");
+            System.exit(128);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SnapshotShard[entries=%d]", entries.size());
+    }
+
+    private static final class Cursor implements Comparable<Cursor> {
+        private final List<String> entries;
+        private int position = 0;
+
+        Cursor(List<String> entries) {
+            this.entries = entries;
+        }
+
+        String current() {
+            return entries.get(position);
+        }
+
+        boolean advance() {
+            return ++position < entries.size();
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return current().compareTo(other.current());
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Evaluates a stream of paths sorted in ascending order, such as the output of {@code git ls-files -o}, holding only
+ * the directories of the current path, each with the compiled rules of its .gitignore file, rather than a node for
+ * every directory ever looked up.
+ * <p>
+ * Sorted, the paths under any directory are contiguous, so a directory's frame is pushed when the first path under
+ * it arrives and popped, for good, after the last. Each frame holds a node of an {@link IgnoreTrie} which its parent
+ * does not keep, so memory is proportional to the depth of the tree, and each directory is loaded once. Paths out
+ * of order are still evaluated correctly, but their directories are loaded again.
+ * <p>
+ * Paths ending in a slash are directories, any other path a file. Decisions are the same as those of
+ * {@link BaseGitIgnore#explain(String, boolean)} with the same engine.
+ * <p>
+ * An evaluator follows the position of a single stream, so is not thread safe. Use one for each stream.
+ */
+public final class SortedPathEvaluator {
+
+    public interface Decisions {
+        void decided(String path, boolean isDirectory, IgnoreDecision decision) throws IOException;
+    }
+
+    private final List<Frame> frames = new ArrayList<>();
+    private long pathsEvaluated;
+    private long directoriesLoaded;
+    private int maximumDepth;
+
+    public SortedPathEvaluator(BaseGitIgnore engine) {
+        IgnoreTrie trie = new IgnoreTrie(engine.rootDirectory, engine, Collections.<ObjectId, CompiledIgnoreRules>emptyMap());
+        this.frames.add(new Frame(trie.root(), null));
+    }
+
+    /**
+     * Evaluates one line per path, as {@link #evaluate(String)} does, passing each decision on in the order read.
+     */
+    public void evaluate(Reader paths, Decisions decisions) throws IOException {
+        BufferedReader lines = paths instanceof BufferedReader ? (BufferedReader) paths : new BufferedReader(paths);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (!line.isEmpty()) {
+                decisions.decided(line, line.endsWith("/"), evaluate(line));
+            }
+        }
+    }
+
+    public void evaluate(Iterator<String> paths, Decisions decisions) throws IOException {
+        while (paths.hasNext()) {
+            String path = paths.next();
+            decisions.decided(path, path.endsWith("/"), evaluate(path));
+        }
+    }
+
+    /**
+     * @param path a repository relative path, ending in a slash if it is a directory
+     */
+    public IgnoreDecision evaluate(String path) {
+        pathsEvaluated++;
+        boolean isDirectory = path.endsWith("/");
+        int start = path.startsWith("/") ? 1 : 0;
+        int end = isDirectory ? path.length() - 1 : path.length();
+        if (end <= start) {
+            return IgnoreDecision.NO_MATCHING_RULE;
+        }
+        String normalised = start == 0 && end == path.length() ? path : path.substring(start, end);
+
+        Frame directory = enter(normalised, isDirectory);
+        if (isDirectory) {
+            return directory.decision;
+        }
+        if (directory.excluded != null) {
+            return directory.excluded;
+        }
+        return directory.node.fileDecision(normalised);
+    }
+
+    /**
+     * Pops the frames of directories the path is not in, then pushes one for each directory of the path not yet on
+     * the stack, including the path itself if it is a directory.
+     *
+     * @return the frame of the innermost directory entered
+     */
+    private Frame enter(String path, boolean isDirectory) {
+        while (frames.size() > 1 && !isUnder(path, frames.get(frames.size() - 1).node.path)) {
+            frames.remove(frames.size() - 1);
+        }
+
+        Frame current = frames.get(frames.size() - 1);
+        int start = current.node.path.isEmpty() ? 0 : current.node.path.length() + 1;
+        while (start < path.length()) {
+            int slash = path.indexOf('/', start);
+            if (slash < 0 && !isDirectory) {
+                break;
+            }
+            int end = slash < 0 ? path.length() : slash;
+            current = push(current, path.substring(start, end));
+            start = end + 1;
+        }
+        return current;
+    }
+
+    private static boolean isUnder(String path, String directory) {
+        return directory.isEmpty()
+                || (path.length() > directory.length()
+                    && path.charAt(directory.length()) == '/'
+                    && path.startsWith(directory));
+    }
+
+    /**
+     * Below an ignored directory, every directory is reported with the decision which ignored it, as the trie would.
+     */
+    private Frame push(Frame parent, String name) {
+        IgnoreTrie.Node node = parent.node.detachedChild(name);
+        IgnoreDecision decision;
+        if (node.internal) {
+            decision = IgnoreDecision.INTERNAL;
+        } else if (parent.excluded != null) {
+            decision = parent.excluded;
+        } else {
+            decision = node.decision();
+        }
+        directoriesLoaded++;
+
+        Frame frame = new Frame(node, decision);
+        frames.add(frame);
+        maximumDepth = Math.max(maximumDepth, frames.size() - 1);
+        return frame;
+    }
+
+    public long pathsEvaluated() {
+        return pathsEvaluated;
+    }
+
+    /**
+     * @return how many directory frames have been pushed, each loading its directory's .gitignore file. For sorted
+     * paths, each directory is counted once.
+     */
+    public long directoriesLoaded() {
+        return directoriesLoaded;
+    }
+
+    /**
+     * @return the most directory frames held at once, other than the root's
+     */
+    public int maximumDepth() {
+        return maximumDepth;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SortedPathEvaluator[paths=%d, directoriesLoaded=%d, maximumDepth=%d]",
+                pathsEvaluated, directoriesLoaded, maximumDepth);
+    }
+
+    /**
+     * Reads sorted paths from standard input and prints those which are ignored, as {@code git check-ignore --stdin}
+     * does, for example:
+     * <pre>
+     *   git ls-files -o | java org.mutabilitydetector.SortedPathEvaluator &lt;repository root&gt;
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: SortedPathEvaluator <repository root> < sorted paths");
+            System.exit(128);
+        }
+        final PrintStream out = new PrintStream(System.out, false, "UTF-8");
+        SortedPathEvaluator evaluator = new SortedPathEvaluator(GitIgnoresByGlob.fromRootDir(new File(args[0]).getAbsolutePath()));
+        evaluator.evaluate(new InputStreamReader(System.in, Charset.forName("UTF-8")), new Decisions() {
+            @Override
+            public void decided(String path, boolean isDirectory, IgnoreDecision decision) {
+                if (decision.isIgnored()) {
+                    out.println(path);
+                }
+            }
+        });
+        out.flush();
+    }
+
+    private static final class Frame {
+        final IgnoreTrie.Node node;
+        final IgnoreDecision decision;
+        final IgnoreDecision excluded;
+
+        /**
+         * @param decision whether the directory itself is ignored, null for the root
+         */
+        Frame(IgnoreTrie.Node node, IgnoreDecision decision) {
+            this.node = node;
+            this.decision = decision;
+            this.excluded = decision != null && decision.isIgnored() ? decision : null;
+        }
+    }
+}
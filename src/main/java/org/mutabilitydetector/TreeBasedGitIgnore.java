@@ -0,0 +1,221 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads .gitignore files from a tree in the object database, rather than the working tree, to evaluate ignores as of
+ * a commit. The blob id of each .gitignore file is its {@link IgnoreRules#contentId()}, so engines sharing a
+ * {@link CompiledRulesCache} compile each version of a file once across any number of commits.
+ */
+public final class TreeBasedGitIgnore {
+    private TreeBasedGitIgnore() {}
+
+    public static RepositoryRoot root(Repository repository, RevTree tree) {
+        return new TreeRepositoryRoot(repository, tree);
+    }
+
+    public static class TreeRepositoryFile implements RepositoryFile {
+        protected final Repository repository;
+        protected final RevTree tree;
+        protected final String path;
+
+        public TreeRepositoryFile(Repository repository, RevTree tree, String path) {
+            this.repository = repository;
+            this.tree = tree;
+            this.path = path;
+        }
+
+        @Override
+        public RepositoryFile getParent() {
+            int lastSlash = path.lastIndexOf('/');
+            return lastSlash < 0
+                ? new TreeRepositoryRoot(repository, tree)
+                : new TreeRepositoryFile(repository, tree, path.substring(0, lastSlash));
+        }
+
+        @Override
+        public IgnoreRules getIgnoreRules() {
+            return new BlobIgnoreRules(repository, blobOf(Constants.GITIGNORE_FILENAME));
+        }
+
+        @Override
+        public IgnoreRules getAttributeRules() {
+            return BlobIgnoreRules.attributes(repository, blobOf(GitAttributeRule.FILENAME));
+        }
+
+        /**
+         * @return the id of the regular file with the given name in this directory, or null if there is none
+         */
+        private ObjectId blobOf(String name) {
+            TreeWalk entry = find(path.isEmpty() ? name : path + "/" + name);
+            if (entry == null) {
+                return null;
+            }
+            try {
+                return FileMode.REGULAR_FILE.equals(entry.getFileMode(0)) || FileMode.EXECUTABLE_FILE.equals(entry.getFileMode(0))
+                    ? entry.getObjectId(0)
+                    : null;
+            } finally {
+                entry.release();
+            }
+        }
+
+        @Override
+        public String getRepositoryRelativePath() {
+            return path;
+        }
+
+        @Override
+        public String pathRelativeTo(RepositoryFile ancestor) {
+            String ancestorPath = ((TreeRepositoryFile) ancestor).path;
+            return ancestorPath.isEmpty() ? path : path.substring(ancestorPath.length() + 1);
+        }
+
+        @Override
+        public boolean isDirectory() {
+            TreeWalk entry = find(path);
+            if (entry == null) {
+                return false;
+            }
+            try {
+                return FileMode.TREE.equals(entry.getFileMode(0));
+            } finally {
+                entry.release();
+            }
+        }
+
+        @Override
+        public boolean isRoot() {
+            return false;
+        }
+
+        @Override
+        public boolean isInternal() {
+            return FileBasedGitIgnore.isInternal(path);
+        }
+
+        /**
+         * A tree records a submodule as a gitlink entry, with the id of a commit in another repository.
+         */
+        @Override
+        public boolean isNestedRepository() {
+            TreeWalk entry = find(path);
+            if (entry == null) {
+                return false;
+            }
+            try {
+                return FileMode.GITLINK.equals(entry.getFileMode(0));
+            } finally {
+                entry.release();
+            }
+        }
+
+        private TreeWalk find(String pathInTree) {
+            try {
+                return TreeWalk.forPath(repository, pathInTree, tree);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public static final class TreeRepositoryRoot extends TreeRepositoryFile implements RepositoryRoot {
+
+        public TreeRepositoryRoot(Repository repository, RevTree tree) {
+            super(repository, tree, "");
+        }
+
+        @Override
+        public TreeRepositoryFile fromPath(String path) {
+            return new TreeRepositoryFile(repository, tree, path);
+        }
+
+        @Override
+        public boolean isIgnoreCase() {
+            return FileBasedGitIgnore.isIgnoreCase(repository.getConfig());
+        }
+
+        @Override
+        public boolean isRoot() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return true;
+        }
+
+        @Override
+        public String getRepositoryRelativePath() {
+            return "/";
+        }
+
+        @Override
+        public boolean isInternal() {
+            return false;
+        }
+
+        @Override
+        public boolean isNestedRepository() {
+            return false;
+        }
+    }
+
+    public static final class BlobIgnoreRules implements IgnoreRules {
+
+        private final Repository repository;
+        private final ObjectId blobId;
+        private final boolean attributes;
+
+        public BlobIgnoreRules(Repository repository, ObjectId blobId) {
+            this(repository, blobId, false);
+        }
+
+        private BlobIgnoreRules(Repository repository, ObjectId blobId, boolean attributes) {
+            this.repository = repository;
+            this.blobId = blobId;
+            this.attributes = attributes;
+        }
+
+        static BlobIgnoreRules attributes(Repository repository, ObjectId blobId) {
+            return new BlobIgnoreRules(repository, blobId, true);
+        }
+
+        @Override
+        public boolean exists() {
+            return blobId != null;
+        }
+
+        @Override
+        public List<IgnoreRule> rules() throws FailedToRetrieveIgnoreRules {
+            try {
+                byte[] content = repository.open(blobId, Constants.OBJ_BLOB).getCachedBytes();
+                ByteArrayInputStream input = new ByteArrayInputStream(content);
+                return attributes
+                    ? GitAttributeRule.attributeEntries(input)
+                    : FileBasedGitIgnore.GitIgnoreRules.ignoreEntries(input);
+            } catch (IOException e) {
+                throw new FailedToRetrieveIgnoreRules(e);
+            }
+        }
+
+        @Override
+        public ObjectId contentId() {
+            return blobId;
+        }
+
+        @Override
+        public Object changeStamp() {
+            return blobId;
+        }
+    }
+}
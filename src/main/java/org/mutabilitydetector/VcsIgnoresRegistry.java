@@ -0,0 +1,323 @@
+package org.mutabilitydetector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out one {@link VcsIgnores} per repository root, for services answering queries about many repositories.
+ * <p>
+ * Every engine opened by the registry shares one {@link CompiledRulesCache}, so identical .gitignore files across
+ * repositories are compiled once. The estimated memory counts the open engines, and each compiled rule set once,
+ * whether the shared cache, the engines, or both hold it. When it goes over budget, whole repositories are evicted,
+ * least recently queried first: their loaded rules are discarded, and they are closed if they hold resources. If that
+ * is not enough, the shared cache drops its least recently used entries which no open engine holds too. A repository
+ * queried again after its eviction is opened afresh, and accounted for again.
+ * <p>
+ * The budget is enforced whenever a repository is opened. Open engines also grow as they are queried, which
+ * {@link #scheduleBudgetChecks(ScheduledExecutorService, long, TimeUnit)} keeps in check without slowing lookups.
+ */
+public final class VcsIgnoresRegistry implements Closeable {
+
+    public interface Opener {
+        VcsIgnores open(File rootDir, CompiledRulesCache rulesCache);
+    }
+
+    public static final Opener BY_GLOB = new Opener() {
+        @Override public VcsIgnores open(File rootDir, CompiledRulesCache rulesCache) {
+            return new GitIgnoresByGlob(FileBasedGitIgnore.root(rootDir), rulesCache);
+        }
+    };
+
+    public static final Opener WITH_JGIT = new Opener() {
+        @Override public VcsIgnores open(File rootDir, CompiledRulesCache rulesCache) {
+            return GitIgnoresWithJGit.fromRepositoryRoot(FileBasedGitIgnore.root(rootDir), rulesCache);
+        }
+    };
+
+    public static final Opener BY_WALKING_FILE_SYSTEM = new Opener() {
+        @Override public VcsIgnores open(File rootDir, CompiledRulesCache rulesCache) {
+            return GitIgnoresByWalkingFileSystem.fromRootDir(rootDir.getAbsolutePath());
+        }
+    };
+
+    public static final Opener BY_WALKING_SUBTREES = new Opener() {
+        @Override public VcsIgnores open(File rootDir, CompiledRulesCache rulesCache) {
+            return GitIgnoresByWalkingFileSystem.lazilyFromRootDir(rootDir.getAbsolutePath());
+        }
+    };
+
+    public static final Opener ADAPTIVE = new Opener() {
+        @Override public VcsIgnores open(File rootDir, CompiledRulesCache rulesCache) {
+            return new AdaptiveVcsIgnores(new GitIgnoresByGlob(FileBasedGitIgnore.root(rootDir), rulesCache), rootDir,
+                    AdaptiveVcsIgnores.Policy.DEFAULT);
+        }
+    };
+
+    private final Opener opener;
+    private final long memoryBudgetBytes;
+    private final CompiledRulesCache rulesCache = new CompiledRulesCache();
+    private final ConcurrentMap<String, Registered> open = new ConcurrentHashMap<>();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public VcsIgnoresRegistry(Opener opener, long memoryBudgetBytes) {
+        this.opener = opener;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    /**
+     * Opens the engine for a root the first time it is asked for, without holding up lookups of other roots, however
+     * long opening takes. Callers asking for the same root meanwhile wait for the one engine being opened.
+     */
+    public VcsIgnores forRoot(File rootDir) {
+        return registered(keyFor(rootDir));
+    }
+
+    private Registered registered(String key) {
+        Registered registered = open.get(key);
+        boolean openedHere = false;
+        if (registered == null) {
+            Registered opening = new Registered(key);
+            registered = open.putIfAbsent(key, opening);
+            if (registered == null) {
+                registered = opening;
+                opening.opened.run();
+                openedHere = true;
+            }
+        }
+        try {
+            registered.engine();
+        } catch (RuntimeException e) {
+            open.remove(key, registered);
+            throw e;
+        }
+        registered.used();
+        if (openedHere) {
+            enforceBudget();
+        }
+        return registered;
+    }
+
+    /**
+     * Calls {@link #enforceBudget()} periodically, to account for engines growing as they are queried.
+     *
+     * @return the scheduled checks, to cancel once the registry is no longer used
+     */
+    public ScheduledFuture<?> scheduleBudgetChecks(ScheduledExecutorService scheduler, long period, TimeUnit unit) {
+        return scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override public void run() {
+                enforceBudget();
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Evicts repositories, least recently queried first, until the estimated memory is within budget, then trims the
+     * shared cache of rules no open engine holds, least recently used first, if that was not enough.
+     */
+    public synchronized void enforceBudget() {
+        long estimate = estimatedBytes();
+        if (estimate <= memoryBudgetBytes) {
+            return;
+        }
+        List<Registered> leastRecentlyUsedFirst = new ArrayList<>(open.values());
+        Collections.sort(leastRecentlyUsedFirst, new Comparator<Registered>() {
+            @Override public int compare(Registered one, Registered other) {
+                return Long.compare(one.lastUsedNanos - other.lastUsedNanos, 0);
+            }
+        });
+        for (Iterator<Registered> candidates = leastRecentlyUsedFirst.iterator();
+             estimate > memoryBudgetBytes && open.size() > 1 && candidates.hasNext(); ) {
+            Registered candidate = candidates.next();
+            if (candidate.opened.isDone() && evict(candidate)) {
+                estimate = estimatedBytes();
+            }
+        }
+        if (estimate > memoryBudgetBytes) {
+            Collection<CompiledIgnoreRules> held = heldRules();
+            long cacheBytes = rulesCache.estimatedBytes();
+            rulesCache.trimTo(Math.max(cacheBytes - (estimate - memoryBudgetBytes), 0), held);
+        }
+    }
+
+    public void evict(File rootDir) {
+        Registered registered = open.get(keyFor(rootDir));
+        if (registered != null) {
+            evict(registered);
+        }
+    }
+
+    private boolean evict(Registered registered) {
+        if (!open.remove(registered.key, registered)) {
+            return false;
+        }
+        registered.evicted = true;
+        if (registered.opened.isDone()) {
+            close(registered.engine());
+        }
+        evictions.incrementAndGet();
+        return true;
+    }
+
+    public long estimatedBytes() {
+        return estimatedBytes(heldRules());
+    }
+
+    private long estimatedBytes(Collection<CompiledIgnoreRules> held) {
+        long estimate = rulesCache.estimatedBytesWith(held);
+        for (Registered registered: open.values()) {
+            if (registered.opened.isDone()) {
+                estimate += sizeOf(registered.engine());
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * @return the rules held by the open engines which share this registry's cache, and so leave them out of their
+     * own estimates
+     */
+    private Collection<CompiledIgnoreRules> heldRules() {
+        List<CompiledIgnoreRules> held = new ArrayList<>();
+        for (Registered registered: open.values()) {
+            if (registered.opened.isDone()) {
+                BaseGitIgnore rules = rulesOf(registered.engine());
+                if (rules != null && rules.rulesCache() == rulesCache) {
+                    held.addAll(rules.heldRules());
+                }
+            }
+        }
+        return held;
+    }
+
+    public int size() {
+        return open.size();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public CompiledRulesCache rulesCache() {
+        return rulesCache;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Registered registered: new ArrayList<>(open.values())) {
+            evict(registered);
+        }
+    }
+
+    /**
+     * What {@link #forRoot(File)} hands out. Once evicted, it stops using its engine, which is then left for garbage
+     * collection, and answers through whichever engine the registry has for the root, opening one if need be, so an
+     * evicted engine never grows beyond the registry's accounting.
+     */
+    private final class Registered implements VcsIgnores {
+        final String key;
+        final FutureTask<VcsIgnores> opened;
+        volatile long lastUsedNanos = System.nanoTime();
+        volatile boolean evicted;
+        private Registered replacement;
+
+        Registered(final String key) {
+            this.key = key;
+            this.opened = new FutureTask<>(new Callable<VcsIgnores>() {
+                @Override public VcsIgnores call() {
+                    return opener.open(new File(key), rulesCache);
+                }
+            });
+        }
+
+        @Override
+        public boolean isIgnored(String relativePath) {
+            if (evicted) {
+                return current().isIgnored(relativePath);
+            }
+            used();
+            return engine().isIgnored(relativePath);
+        }
+
+        private synchronized Registered current() {
+            if (replacement == null || replacement.evicted) {
+                replacement = registered(key);
+            }
+            return replacement;
+        }
+
+        void used() {
+            lastUsedNanos = System.nanoTime();
+        }
+
+        VcsIgnores engine() {
+            try {
+                return opened.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Registered[%s, evicted=%s]", key, evicted);
+        }
+    }
+
+    private static String keyFor(File rootDir) {
+        try {
+            return rootDir.getCanonicalPath();
+        } catch (IOException e) {
+            return rootDir.getAbsolutePath();
+        }
+    }
+
+    private static long sizeOf(VcsIgnores ignores) {
+        return ignores instanceof RetainedSize ? ((RetainedSize) ignores).estimatedRetainedBytes() : 0;
+    }
+
+    private static BaseGitIgnore rulesOf(VcsIgnores ignores) {
+        if (ignores instanceof AdaptiveVcsIgnores) {
+            return ((AdaptiveVcsIgnores) ignores).rules();
+        }
+        return ignores instanceof BaseGitIgnore ? (BaseGitIgnore) ignores : null;
+    }
+
+    private static void close(VcsIgnores ignores) {
+        BaseGitIgnore rules = rulesOf(ignores);
+        if (rules != null) {
+            rules.reload();
+        }
+        if (ignores instanceof Closeable) {
+            try {
+                ((Closeable) ignores).close();
+            } catch (IOException e) {
+                // Ignore, as with Apache Commons IOUtils.closeQuietly.
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("VcsIgnoresRegistry[repositories=%d, estimatedBytes=%d, budget=%d, evictions=%d, %s]",
+                open.size(), estimatedBytes(), memoryBudgetBytes, evictions(), rulesCache);
+    }
+}
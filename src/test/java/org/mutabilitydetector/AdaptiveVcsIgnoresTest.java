@@ -0,0 +1,94 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AdaptiveVcsIgnoresTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test public void answersTheSamePathsAlikeBeforeAndAfterSwitchingToASnapshot() throws Exception {
+        File rootDir = gitFolder.getRepoDirectory();
+        gitFolder.mkdir("folder");
+        gitFolder.mkdir("folder/ignored-directory");
+        gitFolder.mkdir("folder/empty-directory");
+        gitFolder.mkFileIn("folder/ignored-directory/ignored.txt");
+        gitFolder.mkFileIn("folder/not-ignored.txt");
+        gitFolder.mkFileIn("folder/ignored.log");
+        gitFolder.mkdir("only-ignored-files");
+        gitFolder.mkFileIn("only-ignored-files/ignored.log");
+        gitFolder.appendToGitignore("ignored-directory/\n*.log");
+
+        List<String> paths = Arrays.asList("folder", "folder/ignored-directory", "folder/empty-directory",
+                "folder/ignored-directory/ignored.txt", "folder/not-ignored.txt", "folder/ignored.log",
+                "only-ignored-files", "only-ignored-files/ignored.log");
+        AdaptiveVcsIgnores adaptive = new AdaptiveVcsIgnores(GitIgnoresByGlob.fromRootDir(rootDir.getAbsolutePath()),
+                rootDir, new AdaptiveVcsIgnores.Policy(1, 0, 0), SAME_THREAD);
+
+        Map<String, Boolean> beforeSwitch = answers(adaptive, paths);
+        long generationBeforeSwitch = adaptive.generation();
+        while (!adaptive.isUsingSnapshot()) {
+            adaptive.isIgnored("folder/not-ignored.txt");
+        }
+
+        assertThat(answers(adaptive, paths), is(beforeSwitch));
+        assertThat(adaptive.generation(), is(generationBeforeSwitch));
+        assertThat(beforeSwitch.get("folder"), is(false));
+        assertThat(beforeSwitch.get("folder/empty-directory"), is(false));
+        assertThat(beforeSwitch.get("only-ignored-files"), is(false));
+        assertThat(beforeSwitch.get("folder/ignored-directory"), is(true));
+        assertThat(beforeSwitch.get("folder/ignored.log"), is(true));
+    }
+
+    @Test public void answersPathsTheSnapshotNeverSawWithTheRules() throws Exception {
+        File rootDir = gitFolder.getRepoDirectory();
+        gitFolder.mkdir("folder");
+        gitFolder.mkFileIn("folder/not-ignored.txt");
+        gitFolder.mkdir("vendor");
+        Git.init().setDirectory(new File(rootDir, "vendor")).call().close();
+        gitFolder.mkFileIn("vendor/debug.log");
+        gitFolder.appendToGitignore("*.log");
+
+        List<String> paths = Arrays.asList("folder/created-later.txt", "folder/created-later.log", "does-not-exist",
+                "/folder", "folder/", "/folder/not-ignored.txt", "vendor/debug.log", "vendor/README");
+        AdaptiveVcsIgnores adaptive = new AdaptiveVcsIgnores(GitIgnoresByGlob.fromRootDir(rootDir.getAbsolutePath()),
+                rootDir, new AdaptiveVcsIgnores.Policy(1, 0, 0), SAME_THREAD);
+
+        Map<String, Boolean> beforeSwitch = answers(adaptive, paths);
+        while (!adaptive.isUsingSnapshot()) {
+            adaptive.isIgnored("folder/not-ignored.txt");
+        }
+        gitFolder.mkFileIn("folder/created-later.txt");
+        gitFolder.mkFileIn("folder/created-later.log");
+
+        assertThat(answers(adaptive, paths), is(beforeSwitch));
+        assertThat(beforeSwitch.get("folder/created-later.txt"), is(false));
+        assertThat(beforeSwitch.get("folder/"), is(false));
+        assertThat(beforeSwitch.get("vendor/debug.log"), is(false));
+    }
+
+    private static Map<String, Boolean> answers(VcsIgnores ignores, List<String> paths) {
+        Map<String, Boolean> answers = new LinkedHashMap<>();
+        for (String path: paths) {
+            answers.put(path, ignores.isIgnored(path));
+        }
+        return answers;
+    }
+}
@@ -0,0 +1,92 @@
+package org.mutabilitydetector;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CachingVcsIgnoresTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    @Test public void keepsAnsweringWithTheOldRulesUntilRefreshed() throws Exception {
+        gitFolder.mkFileIn("debug.log");
+        writeGitignore("*.log", 0);
+        GitIgnoresByGlob rules = GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+        CachingVcsIgnores caching = CachingVcsIgnores.caching(rules, 100);
+
+        assertThat(caching.isIgnored("debug.log"), is(true));
+        writeGitignore("*.tmp", 1);
+        assertThat(caching.isIgnored("debug.log"), is(true));
+
+        assertThat(rules.refresh(), is(true));
+        assertThat(caching.isIgnored("debug.log"), is(false));
+        assertThat(caching.hits(), is(1L));
+    }
+
+    @Test public void refreshingEngineSeesEditsOnceTheIntervalHasPassed() throws Exception {
+        gitFolder.mkFileIn("debug.log");
+        writeGitignore("*.log", 0);
+        GitIgnoresByGlob rules = GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+        CachingVcsIgnores caching = CachingVcsIgnores.refreshing(rules, 100, 0, TimeUnit.MILLISECONDS);
+
+        assertThat(caching.isIgnored("debug.log"), is(true));
+        writeGitignore("*.tmp", 1);
+
+        assertThat(caching.isIgnored("debug.log"), is(false));
+    }
+
+    @Test public void refreshingEngineKeepsItsAnswersWithinTheInterval() throws Exception {
+        gitFolder.mkFileIn("debug.log");
+        writeGitignore("*.log", 0);
+        GitIgnoresByGlob rules = GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+        CachingVcsIgnores caching = CachingVcsIgnores.refreshing(rules, 100, 1, TimeUnit.HOURS);
+
+        assertThat(caching.isIgnored("debug.log"), is(true));
+        writeGitignore("*.tmp", 1);
+
+        assertThat(caching.isIgnored("debug.log"), is(true));
+        assertThat(rules.generation(), is(0L));
+    }
+
+    @Test public void refreshDetectsAnEditOfTheSameSizeByItsModificationTime() throws Exception {
+        writeGitignore("*.log", 0);
+        GitIgnoresByGlob rules = GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+        assertThat(rules.isIgnored("debug.log"), is(true));
+
+        assertThat(rules.refresh(), is(false));
+        writeGitignore("*.tmp", 1);
+
+        assertThat(rules.refresh(), is(true));
+        assertThat(rules.isIgnored("debug.log"), is(false));
+    }
+
+    @Test public void refreshIgnoresAFileTouchedWithoutChangingItsContent() throws Exception {
+        writeGitignore("*.log", 0);
+        GitIgnoresByGlob rules = GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+        assertThat(rules.isIgnored("debug.log"), is(true));
+
+        writeGitignore("*.log", 1);
+
+        assertThat(rules.refresh(), is(false));
+        assertThat(rules.generation(), is(0L));
+    }
+
+    /**
+     * Dates the file some minutes back, so its stamp is trusted, each version a minute apart.
+     */
+    private void writeGitignore(String content, int version) throws IOException {
+        File gitignore = new File(gitFolder.getRepoDirectory(), ".gitignore");
+        Files.write(gitignore.toPath(), (content + "\n").getBytes(Charset.forName("UTF-8")));
+        long modified = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10 - version);
+        Files.setLastModifiedTime(gitignore.toPath(), FileTime.fromMillis(modified));
+    }
+}
@@ -0,0 +1,510 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Generates random repositories and .gitignore rule sets, and compares every {@link VcsIgnores} implementation
+ * against the answers of the local {@code git check-ignore --stdin}.
+ * <p>
+ * Disagreements are shrunk to a minimal repository before being reported, and the throughput of each engine over
+ * the same queries is reported alongside. This is not run as part of the build, since the engines are still known
+ * to disagree with git; run it with:
+ * <pre>
+ *   java org.mutabilitydetector.CheckIgnoreDifferentialHarness [seed] [rounds]
+ * </pre>
+ */
+public final class CheckIgnoreDifferentialHarness {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] NAMES = { "a", "b", "foo", "bar", "x.txt", "y.txt", "z.class", "build", "out.log", "Ab" };
+
+    interface Engine {
+        VcsIgnores create(File rootDir);
+    }
+
+    static Map<String, Engine> engines() {
+        Map<String, Engine> engines = new LinkedHashMap<>();
+        engines.put("ByGlob", new Engine() {
+            @Override public VcsIgnores create(File rootDir) {
+                return GitIgnoresByGlob.fromRootDir(rootDir.getAbsolutePath());
+            }
+        });
+        engines.put("JGit", new Engine() {
+            @Override public VcsIgnores create(File rootDir) {
+                return GitIgnoresWithJGit.fromRootDir(rootDir.getAbsolutePath());
+            }
+        });
+        engines.put("InMemoryByGlob", new Engine() {
+            @Override public VcsIgnores create(File rootDir) {
+                return new GitIgnoresByGlob(inMemoryCopyOf(rootDir));
+            }
+        });
+        engines.put("WalkingFileSystem", new Engine() {
+            @Override public VcsIgnores create(File rootDir) {
+                return GitIgnoresByWalkingFileSystem.fromRootDir(rootDir.getAbsolutePath());
+            }
+        });
+        engines.put("WalkingByGlob", new Engine() {
+            @Override public VcsIgnores create(File rootDir) {
+                return GitIgnoresByWalkingFileSystem.fromRootDir(rootDir.getAbsolutePath(),
+                        GitIgnoresByGlob.fromRootDir(rootDir.getAbsolutePath()));
+            }
+        });
+        engines.put("WalkingSubtrees", new Engine() {
+            @Override public VcsIgnores create(File rootDir) {
+                return GitIgnoresByWalkingFileSystem.lazilyFromRootDir(rootDir.getAbsolutePath());
+            }
+        });
+        return engines;
+    }
+
+    /**
+     * Reads the paths and .gitignore files of the working tree once, so the engine then evaluates without touching
+     * the disk.
+     */
+    static RepositoryRoot inMemoryCopyOf(File rootDir) {
+        final Path root = rootDir.toPath();
+        final Map<String, Boolean> paths = new TreeMap<>();
+        final Map<String, String> gitignores = new TreeMap<>();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    String path = root.relativize(dir).toString().replace(File.separatorChar, '/');
+                    if (dir.getFileName().toString().equals(Constants.DOT_GIT)) {
+                        paths.put(path, true);
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (!path.isEmpty()) {
+                        paths.put(path, true);
+                    }
+                    Path gitignore = dir.resolve(Constants.GITIGNORE_FILENAME);
+                    if (Files.isRegularFile(gitignore)) {
+                        gitignores.put(path, new String(Files.readAllBytes(gitignore), UTF_8));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    paths.put(root.relativize(file).toString().replace(File.separatorChar, '/'), false);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return InMemoryGitIgnore.root(paths, gitignores);
+    }
+
+    public static void main(String[] args) throws Exception {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        Map<String, Engine> engines = engines();
+        Map<String, EngineStats> stats = new LinkedHashMap<>();
+        for (String name: engines.keySet()) {
+            stats.put(name, new EngineStats());
+        }
+
+        System.out.println("seed=" + seed + " rounds=" + rounds);
+        for (int round = 0; round < rounds; round++) {
+            Scenario scenario = Scenario.random(new Random(seed + round));
+            File rootDir = scenario.materialize();
+            Set<String> expected = gitCheckIgnore(rootDir, scenario.paths());
+            List<Disagreement> disagreements = new ArrayList<>();
+
+            for (Map.Entry<String, Engine> engine: engines.entrySet()) {
+                EngineStats engineStats = stats.get(engine.getKey());
+                Map<String, Boolean> actual = query(engine.getValue(), rootDir, scenario.paths(), engineStats);
+
+                boolean reported = false;
+                for (String path: scenario.paths()) {
+                    Boolean isIgnored = actual.get(path);
+                    if (isIgnored == null || isIgnored != expected.contains(path)) {
+                        engineStats.disagreements++;
+                        if (!reported) {
+                            disagreements.add(new Disagreement(engine.getKey(), path, expected.contains(path)));
+                            reported = true;
+                        }
+                    }
+                }
+            }
+            Scenario.deleteRecursively(rootDir.toPath());
+
+            for (Disagreement disagreement: disagreements) {
+                Scenario minimal = shrink(scenario, disagreement.path, engines.get(disagreement.engine));
+                System.out.println(String.format("[%s] round %d disagrees on '%s' (git: %s)%n%s",
+                        disagreement.engine, round, disagreement.path,
+                        disagreement.expectedIgnored ? "ignored" : "not ignored", minimal));
+            }
+        }
+
+        System.out.println();
+        for (Map.Entry<String, EngineStats> engine: stats.entrySet()) {
+            System.out.println(String.format("%-20s %s", engine.getKey(), engine.getValue()));
+        }
+    }
+
+    private static Map<String, Boolean> query(Engine engine, File rootDir, List<String> paths, EngineStats stats) {
+        Map<String, Boolean> results = new TreeMap<>();
+        long start = System.nanoTime();
+        VcsIgnores ignores;
+        try {
+            ignores = engine.create(rootDir);
+        } catch (RuntimeException e) {
+            return results;
+        }
+        long created = System.nanoTime();
+        for (String path: paths) {
+            try {
+                results.put(path, ignores.isIgnored(path));
+            } catch (RuntimeException e) {
+                // Reported as a disagreement.
+            }
+        }
+        long finished = System.nanoTime();
+
+        stats.setupNanos += created - start;
+        stats.queryNanos += finished - created;
+        stats.queries += paths.size();
+        return results;
+    }
+
+    private static Scenario shrink(Scenario failing, String path, Engine engine) throws IOException, InterruptedException {
+        Scenario current = failing.retainingOnly(path);
+        if (!disagrees(current, path, engine)) {
+            current = failing;
+        }
+
+        boolean shrunk = true;
+        while (shrunk) {
+            shrunk = false;
+            for (Scenario candidate: current.withOneRuleRemoved()) {
+                if (disagrees(candidate, path, engine)) {
+                    current = candidate;
+                    shrunk = true;
+                    break;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static boolean disagrees(Scenario scenario, String path, Engine engine) throws IOException, InterruptedException {
+        File rootDir = scenario.materialize();
+        try {
+            boolean expected = gitCheckIgnore(rootDir, Collections.singletonList(path)).contains(path);
+            Map<String, Boolean> actual = query(engine, rootDir, Collections.singletonList(path), new EngineStats());
+            Boolean isIgnored = actual.get(path);
+            return isIgnored == null || isIgnored != expected;
+        } finally {
+            Scenario.deleteRecursively(rootDir.toPath());
+        }
+    }
+
+    static Set<String> gitCheckIgnore(File rootDir, Iterable<String> paths) throws IOException, InterruptedException {
+        final Process git = new ProcessBuilder("git", "check-ignore", "--stdin", "-z")
+                .directory(rootDir)
+                .start();
+
+        final ByteArrayOutputStream input = new ByteArrayOutputStream();
+        for (String path: paths) {
+            input.write(path.getBytes(UTF_8));
+            input.write(0);
+        }
+        Thread writer = new Thread(new Runnable() {
+            @Override public void run() {
+                try (OutputStream stdin = git.getOutputStream()) {
+                    input.writeTo(stdin);
+                } catch (IOException e) {
+                    // git exited early; the exit code will tell.
+                }
+            }
+        });
+        writer.start();
+
+        byte[] output = readFully(git.getInputStream());
+        writer.join();
+        int exitCode = git.waitFor();
+        if (exitCode > 1) {
+            throw new IOException("git check-ignore exited with " + exitCode + ": " + new String(readFully(git.getErrorStream()), UTF_8));
+        }
+
+        Set<String> ignored = new HashSet<>();
+        for (String path: new String(output, UTF_8).split("\0")) {
+            if (!path.isEmpty()) {
+                ignored.add(path);
+            }
+        }
+        return ignored;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static final class EngineStats {
+        long setupNanos;
+        long queryNanos;
+        long queries;
+        long disagreements;
+
+        @Override
+        public String toString() {
+            double queriesPerSecond = queryNanos == 0 ? 0 : queries / (queryNanos / 1e9);
+            return String.format("disagreements=%d queries=%d setup=%.1fms query=%.1fms (%.0f queries/s)",
+                    disagreements, queries, setupNanos / 1e6, queryNanos / 1e6, queriesPerSecond);
+        }
+    }
+
+    private static final class Disagreement {
+        final String engine;
+        final String path;
+        final boolean expectedIgnored;
+
+        Disagreement(String engine, String path, boolean expectedIgnored) {
+            this.engine = engine;
+            this.path = path;
+            this.expectedIgnored = expectedIgnored;
+        }
+    }
+
+    /**
+     * A repository layout: directories, files, and the lines of the .gitignore file in each directory.
+     */
+    static final class Scenario {
+        final Set<String> directories;
+        final Set<String> files;
+        final Map<String, List<String>> gitignores;
+
+        Scenario(Set<String> directories, Set<String> files, Map<String, List<String>> gitignores) {
+            this.directories = directories;
+            this.files = files;
+            this.gitignores = gitignores;
+        }
+
+        static Scenario random(Random random) {
+            Set<String> directories = new TreeSet<>();
+            Set<String> files = new TreeSet<>();
+            Map<String, List<String>> gitignores = new TreeMap<>();
+
+            directories.add("");
+            int entries = 5 + random.nextInt(25);
+            for (int i = 0; i < entries; i++) {
+                List<String> parents = new ArrayList<>(directories);
+                String parent = parents.get(random.nextInt(parents.size()));
+                if (parent.split("/").length >= 4) {
+                    continue;
+                }
+                String path = parent.isEmpty() ? pick(random, NAMES) : parent + "/" + pick(random, NAMES);
+                if (directories.contains(path) || files.contains(path)) {
+                    continue;
+                }
+                if (random.nextInt(3) == 0) {
+                    directories.add(path);
+                } else {
+                    files.add(path);
+                }
+            }
+
+            List<String> allPaths = new ArrayList<>(directories);
+            allPaths.addAll(files);
+            for (String directory: directories) {
+                if (!directory.isEmpty() && random.nextInt(3) != 0) {
+                    continue;
+                }
+                List<String> lines = new ArrayList<>();
+                int ruleCount = 1 + random.nextInt(5);
+                for (int i = 0; i < ruleCount; i++) {
+                    lines.add(randomRule(random, directory, allPaths));
+                }
+                gitignores.put(directory, lines);
+            }
+
+            return new Scenario(directories, files, gitignores);
+        }
+
+        private static String randomRule(Random random, String directory, List<String> allPaths) {
+            String path = pick(random, allPaths.toArray(new String[0]));
+            if (!directory.isEmpty() && path.startsWith(directory + "/")) {
+                path = path.substring(directory.length() + 1);
+            } else if (path.isEmpty() || random.nextBoolean()) {
+                path = pick(random, NAMES);
+            }
+
+            StringBuilder rule = new StringBuilder();
+            for (String segment: path.split("/")) {
+                if (rule.length() > 0) {
+                    rule.append('/');
+                }
+                switch (random.nextInt(10)) {
+                    case 0: rule.append('*'); break;
+                    case 1: rule.append(segment.charAt(0)).append('*'); break;
+                    case 2: rule.append("**"); break;
+                    case 3: rule.append('?').append(segment.substring(1)); break;
+                    case 4: rule.append('[').append(segment.charAt(0)).append("x]").append(segment.substring(1)); break;
+                    case 5: rule.append("[!q]").append(segment.substring(1)); break;
+                    default: rule.append(segment);
+                }
+            }
+
+            switch (random.nextInt(8)) {
+                case 0: rule.insert(0, '/'); break;
+                case 1: rule.insert(0, "**/"); break;
+                case 2: rule.append('/'); break;
+                case 3: rule.append("/**"); break;
+                default:
+            }
+            if (random.nextInt(4) == 0) {
+                rule.insert(0, '!');
+            }
+            return rule.toString();
+        }
+
+        private static String pick(Random random, String[] values) {
+            return values[random.nextInt(values.length)];
+        }
+
+        List<String> paths() {
+            List<String> paths = new ArrayList<>();
+            for (String directory: directories) {
+                if (!directory.isEmpty()) {
+                    paths.add(directory);
+                }
+            }
+            paths.addAll(files);
+            return paths;
+        }
+
+        Scenario retainingOnly(String path) {
+            Set<String> keptDirectories = new TreeSet<>();
+            Set<String> keptFiles = new TreeSet<>();
+            for (String directory: directories) {
+                if (directory.isEmpty() || isAncestorOrSelf(directory, path) || gitignores.containsKey(directory)) {
+                    keptDirectories.add(directory);
+                }
+            }
+            for (String directory: new ArrayList<>(keptDirectories)) {
+                for (String ancestor: directories) {
+                    if (isAncestorOrSelf(ancestor, directory)) {
+                        keptDirectories.add(ancestor);
+                    }
+                }
+            }
+            if (files.contains(path)) {
+                keptFiles.add(path);
+            }
+            return new Scenario(keptDirectories, keptFiles, gitignores);
+        }
+
+        List<Scenario> withOneRuleRemoved() {
+            List<Scenario> candidates = new ArrayList<>();
+            for (Map.Entry<String, List<String>> gitignore: gitignores.entrySet()) {
+                for (int i = 0; i < gitignore.getValue().size(); i++) {
+                    Map<String, List<String>> fewerRules = new TreeMap<>(gitignores);
+                    List<String> lines = new ArrayList<>(gitignore.getValue());
+                    lines.remove(i);
+                    if (lines.isEmpty()) {
+                        fewerRules.remove(gitignore.getKey());
+                    } else {
+                        fewerRules.put(gitignore.getKey(), lines);
+                    }
+                    candidates.add(new Scenario(directories, files, fewerRules));
+                }
+            }
+            return candidates;
+        }
+
+        private static boolean isAncestorOrSelf(String ancestor, String path) {
+            return ancestor.isEmpty() || path.equals(ancestor) || path.startsWith(ancestor + "/");
+        }
+
+        File materialize() throws IOException {
+            Path rootDir = Files.createTempDirectory("check-ignore-harness");
+            try {
+                Git.init().setDirectory(rootDir.toFile()).setBare(false).call().getRepository().close();
+            } catch (GitAPIException e) {
+                throw new IOException(e);
+            }
+            for (String directory: directories) {
+                Files.createDirectories(rootDir.resolve(directory));
+            }
+            for (String file: files) {
+                Files.createFile(rootDir.resolve(file));
+            }
+            for (Map.Entry<String, List<String>> gitignore: gitignores.entrySet()) {
+                Files.write(rootDir.resolve(gitignore.getKey()).resolve(Constants.GITIGNORE_FILENAME), gitignore.getValue(), UTF_8);
+            }
+            return rootDir.toFile();
+        }
+
+        static void deleteRecursively(Path rootDir) {
+            try {
+                Files.walkFileTree(rootDir, new SimpleFileVisitor<Path>() {
+                    @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        Files.delete(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                        Files.delete(dir);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                // Best effort, it's a temporary directory.
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder description = new StringBuilder();
+            for (String directory: directories) {
+                if (!directory.isEmpty()) {
+                    description.append("  ").append(directory).append("/\n");
+                }
+            }
+            for (String file: files) {
+                description.append("  ").append(file).append('\n');
+            }
+            for (Map.Entry<String, List<String>> gitignore: gitignores.entrySet()) {
+                String location = gitignore.getKey().isEmpty() ? "" : gitignore.getKey() + "/";
+                description.append("  ").append(location).append(".gitignore:\n");
+                for (String line: gitignore.getValue()) {
+                    description.append("    ").append(line).append('\n');
+                }
+            }
+            return description.toString();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.mutabilitydetector;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CheckIgnoreServerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    @Test public void writesBackOnlyIgnoredPaths() throws Exception {
+        gitFolder.appendToGitignore("*.log");
+
+        CheckIgnoreServer server = new CheckIgnoreServer(glob(), false, false, false);
+
+        assertThat(serve(server, "debug.log\nnotes.txt\ntrace.log\n"), is("debug.log\ntrace.log\n"));
+    }
+
+    @Test public void reportsWhetherAnyPathWasIgnored() throws Exception {
+        gitFolder.appendToGitignore("*.log");
+
+        CheckIgnoreServer server = new CheckIgnoreServer(glob(), false, false, false);
+
+        assertThat(server.serve(input("debug.log\n"), new ByteArrayOutputStream()), is(true));
+        assertThat(server.serve(input("notes.txt\n"), new ByteArrayOutputStream()), is(false));
+    }
+
+    @Test public void answersFinalPathWithoutDelimiterAndStripsCarriageReturns() throws Exception {
+        gitFolder.appendToGitignore("*.log");
+
+        CheckIgnoreServer server = new CheckIgnoreServer(glob(), false, false, false);
+
+        assertThat(serve(server, "debug.log\r\n\ntrace.log"), is("debug.log\ntrace.log\n"));
+    }
+
+    @Test public void readsAndWritesNulTerminatedPaths() throws Exception {
+        gitFolder.appendToGitignore("*.log");
+
+        CheckIgnoreServer server = new CheckIgnoreServer(glob(), true, false, false);
+
+        assertThat(serve(server, "debug.log\0notes.txt\0with\nnewline.log\0"), is("debug.log\0with\nnewline.log\0"));
+    }
+
+    @Test public void verboseNamesTheDecidingRuleIncludingNegations() throws Exception {
+        gitFolder.mkdir("folder");
+        gitFolder.appendToGitignore("*.log");
+        gitFolder.appendToGitignore("# comment\n!keep.log", new File(gitFolder.getRepoDirectory(), "folder"));
+
+        CheckIgnoreServer server = new CheckIgnoreServer(glob(), false, true, false);
+
+        assertThat(serve(server, "debug.log\nfolder/keep.log\nnotes.txt\n"),
+                is(".gitignore:1:*.log\tdebug.log\nfolder/.gitignore:2:!keep.log\tfolder/keep.log\n"));
+    }
+
+    @Test public void nonMatchingWritesPathsWithoutADecidingRuleWithEmptyFields() throws Exception {
+        gitFolder.appendToGitignore("*.log");
+
+        CheckIgnoreServer server = new CheckIgnoreServer(glob(), false, true, true);
+
+        assertThat(serve(server, "debug.log\nnotes.txt\n"), is(".gitignore:1:*.log\tdebug.log\n::\tnotes.txt\n"));
+    }
+
+    @Test public void verboseNulTerminatedOutputSeparatesEveryField() throws Exception {
+        gitFolder.appendToGitignore("*.log");
+
+        CheckIgnoreServer server = new CheckIgnoreServer(glob(), true, true, true);
+
+        assertThat(serve(server, "debug.log\0notes.txt\0"),
+                is(".gitignore\0" + "1\0*.log\0debug.log\0" + "\0\0\0notes.txt\0"));
+    }
+
+    private GitIgnoresByGlob glob() {
+        return GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+    }
+
+    private static String serve(CheckIgnoreServer server, String paths) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        server.serve(input(paths), out);
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    private static ByteArrayInputStream input(String paths) {
+        return new ByteArrayInputStream(paths.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,109 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CleanPlanTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After public void shutdownExecutor() {
+        executor.shutdown();
+    }
+
+    @Test public void reportsAnIgnoredDirectoryAsOneEntry() throws Exception {
+        gitFolder.mkdir("build");
+        gitFolder.mkdir("build/classes");
+        gitFolder.mkFileIn("build/classes/Main.class");
+        gitFolder.mkFileIn("debug.log");
+        gitFolder.mkFileIn("Main.java");
+        gitFolder.appendToGitignore("build/\n*.log");
+
+        CleanPlan plan = plan(false);
+
+        assertThat(describe(plan.entries()), is(Arrays.asList("build/ -1", "debug.log -1")));
+        assertThat(plan.totalBytes(), is(-1L));
+        assertThat(plan.isComplete(), is(true));
+    }
+
+    @Test public void collapsesADirectoryHoldingNothingButIgnoredPaths() throws Exception {
+        gitFolder.mkdir("logs");
+        gitFolder.mkdir("logs/old");
+        gitFolder.mkFileIn("logs/today.log");
+        gitFolder.mkFileIn("logs/old/yesterday.log");
+        gitFolder.mkdir("src");
+        gitFolder.mkFileIn("src/Main.java");
+        gitFolder.mkFileIn("src/trace.log");
+        gitFolder.appendToGitignore("*.log");
+
+        CleanPlan plan = plan(false);
+
+        assertThat(describe(plan.entries()), is(Arrays.asList("logs/ -1", "src/trace.log -1")));
+        assertThat(plan.directoriesCollapsed(), is(2));
+    }
+
+    @Test public void addsUpTheSizesOfWhatEachEntryHolds() throws Exception {
+        gitFolder.mkdir("build");
+        gitFolder.mkdir("build/classes");
+        write("build/classes/Main.class", 10);
+        write("build/classes/Other.class", 5);
+        write("build/report.txt", 7);
+        write("debug.log", 3);
+        write("Main.java", 100);
+        gitFolder.appendToGitignore("build/\n*.log");
+
+        CleanPlan plan = plan(true);
+
+        assertThat(describe(plan.entries()), is(Arrays.asList("build/ 22", "debug.log 3")));
+        assertThat(plan.totalBytes(), is(25L));
+    }
+
+    @Test public void leavesNestedRepositoriesAlone() throws Exception {
+        gitFolder.mkdir("vendor");
+        Git.init().setDirectory(new File(gitFolder.getRepoDirectory(), "vendor")).call().close();
+        gitFolder.mkFileIn("vendor/debug.log");
+        gitFolder.mkdir("tools");
+        Git.init().setDirectory(new File(gitFolder.getRepoDirectory(), "tools")).call().close();
+        gitFolder.mkdir("logs");
+        gitFolder.mkFileIn("logs/today.log");
+        gitFolder.appendToGitignore("*.log\ntools/");
+
+        CleanPlan plan = plan(false);
+
+        assertThat(describe(plan.entries()), is(Arrays.asList("logs/ -1")));
+    }
+
+    private CleanPlan plan(boolean withSizes) throws Exception {
+        GitIgnoresByGlob engine = GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+        CleanPlan plan = engine.planClean(gitFolder.getRepoDirectory(), withSizes, executor);
+        plan.awaitReady();
+        return plan;
+    }
+
+    private void write(String path, int length) throws Exception {
+        Files.write(new File(gitFolder.getRepoDirectory(), path).toPath(), new byte[length]);
+    }
+
+    private static List<String> describe(List<CleanPlan.Entry> entries) {
+        List<String> described = new ArrayList<>();
+        for (CleanPlan.Entry entry: entries) {
+            described.add(entry.path() + (entry.isDirectory() ? "/ " : " ") + entry.size());
+        }
+        return described;
+    }
+}
@@ -0,0 +1,109 @@
+package org.mutabilitydetector;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class GitAttributesTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    @Test public void assignsSetAndValuedAttributes() throws Exception {
+        gitFolder.mkFileIn("notes.txt");
+        writeGitattributes("*.txt text eol=lf", "");
+
+        IgnoreAndAttributes result = engine().explainWithAttributes("notes.txt");
+
+        assertThat(result.attribute("text"), is(GitAttributeRule.SET));
+        assertThat(result.attribute("eol"), is("lf"));
+        assertThat(result.attribute("diff"), is(nullValue()));
+        assertThat(result.isIgnored(), is(false));
+    }
+
+    @Test public void closerFileTakesPrecedence() throws Exception {
+        gitFolder.mkdir("scripts");
+        gitFolder.mkFileIn("run.sh");
+        gitFolder.mkFileIn("scripts/run.sh");
+        writeGitattributes("*.sh eol=lf", "");
+        writeGitattributes("*.sh eol=crlf", "scripts");
+
+        assertThat(engine().explainWithAttributes("run.sh").attribute("eol"), is("lf"));
+        assertThat(engine().explainWithAttributes("scripts/run.sh").attribute("eol"), is("crlf"));
+    }
+
+    @Test public void laterLinesTakePrecedence() throws Exception {
+        gitFolder.mkFileIn("logo.png");
+        writeGitattributes("* text\n*.png -text", "");
+
+        assertThat(engine().explainWithAttributes("logo.png").attribute("text"), is(GitAttributeRule.UNSET));
+    }
+
+    @Test public void exclamationMarkLeavesTheAttributeUnspecified() throws Exception {
+        gitFolder.mkdir("vendor");
+        gitFolder.mkFileIn("vendor/lib.txt");
+        writeGitattributes("*.txt diff", "");
+        writeGitattributes("*.txt !diff", "vendor");
+
+        IgnoreAndAttributes result = engine().explainWithAttributes("vendor/lib.txt");
+
+        assertThat(result.attribute("diff"), is(nullValue()));
+        assertThat(result.attributes().containsKey("diff"), is(false));
+    }
+
+    @Test public void attributesApplyInsideIgnoredDirectories() throws Exception {
+        gitFolder.mkdir("build");
+        gitFolder.mkFileIn("build/Main.class");
+        gitFolder.appendToGitignore("build/");
+        writeGitattributes("*.class binary", "");
+
+        IgnoreAndAttributes result = engine().explainWithAttributes("build/Main.class");
+
+        assertThat(result.isIgnored(), is(true));
+        assertThat(result.isSet("binary"), is(true));
+        assertThat(result.attribute("diff"), is(GitAttributeRule.UNSET));
+        assertThat(result.attribute("text"), is(GitAttributeRule.UNSET));
+    }
+
+    @Test public void patternsEndingInASlashMatchNothing() throws Exception {
+        gitFolder.mkdir("docs");
+        gitFolder.mkFileIn("docs/index.html");
+        writeGitattributes("docs/ linguist-documentation\ndocs/** export-ignore", "");
+
+        IgnoreAndAttributes result = engine().explainWithAttributes("docs/index.html");
+
+        assertThat(result.attribute("linguist-documentation"), is(nullValue()));
+        assertThat(result.isSet("export-ignore"), is(true));
+        assertThat(engine().explainWithAttributes("docs", true).attributes().isEmpty(), is(true));
+    }
+
+    @Test public void resolvesTheSameWithJGitCompiledPatterns() throws Exception {
+        gitFolder.mkdir("scripts");
+        gitFolder.mkFileIn("scripts/run.sh");
+        writeGitattributes("*.sh text eol=lf", "");
+        writeGitattributes("*.sh eol=crlf", "scripts");
+
+        IgnoreAndAttributes result = GitIgnoresWithJGit.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath())
+                .explainWithAttributes("scripts/run.sh");
+
+        assertThat(result.attribute("eol"), is("crlf"));
+        assertThat(result.attribute("text"), is(GitAttributeRule.SET));
+    }
+
+    private GitIgnoresByGlob engine() {
+        return GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+    }
+
+    private void writeGitattributes(String content, String directory) throws IOException {
+        File file = new File(new File(gitFolder.getRepoDirectory(), directory), GitAttributeRule.FILENAME);
+        Files.write(file.toPath(), Arrays.asList(content.split("\n")), Charset.forName("UTF-8"));
+    }
+}
@@ -0,0 +1,220 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Guards the allocation of each engine's hot path, measured with the allocation counter of the current thread after
+ * warming up. A call is one lookup, except where a variant says otherwise. Budgets are per call: zero where the
+ * engine answers from memory it already holds, otherwise about twice what the engine allocates today, so lowering
+ * a budget is how an allocation saving is locked in.
+ * <p>
+ * Run with {@code mvn test -Dtest='GitIgnoreAllocationFrame$*'}.
+ */
+public abstract class GitIgnoreAllocationFrame {
+
+    private static final int WARM_UP_CALLS = 20000;
+    private static final int MEASURED_CALLS = 20000;
+
+    private static final List<String> PATHS = Arrays.asList(
+            "README.md",
+            "build.log",
+            "target",
+            "target/classes/Foo.class",
+            "src/main/java/Foo.java",
+            "src/main/java/Foo.class",
+            "src/main/resources/keep.log",
+            "src/main/resources/other.log",
+            "docs/index.html",
+            "docs/generated/api.html");
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    File rootDir;
+
+    interface Call {
+        void run();
+    }
+
+    abstract Call provideCall() throws Exception;
+
+    abstract long budgetInBytesPerCall();
+
+    @Before
+    public void createRepository() throws IOException {
+        rootDir = gitFolder.getRepoDirectory();
+        for (String directory: Arrays.asList("target", "target/classes", "src", "src/main", "src/main/java",
+                "src/main/resources", "docs", "docs/generated")) {
+            gitFolder.mkdir(directory);
+        }
+        for (String path: PATHS) {
+            if (!new File(rootDir, path).isDirectory()) {
+                gitFolder.mkFileIn(path);
+            }
+        }
+        gitFolder.appendToGitignore("*.log\n/target/\n*.class\n# generated\ndocs/generated/");
+        gitFolder.appendToGitignore("!keep.log", new File(rootDir, "src/main/resources"));
+    }
+
+    @Test
+    public void staysWithinAllocationBudget() throws Exception {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        Call call = provideCall();
+
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            call.run();
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            call.run();
+        }
+        long bytesPerCall = (threads.getThreadAllocatedBytes(thread) - before) / MEASURED_CALLS;
+
+        assertTrue(String.format("%s allocated %d bytes per call, over its budget of %d",
+                        getClass().getSimpleName(), bytesPerCall, budgetInBytesPerCall()),
+                bytesPerCall <= budgetInBytesPerCall());
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        Object threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationCounting = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocationCounting.isThreadAllocatedMemorySupported());
+        allocationCounting.setThreadAllocatedMemoryEnabled(true);
+        return allocationCounting;
+    }
+
+    static Call lookups(final VcsIgnores ignores) {
+        return new Call() {
+            private int next = 0;
+
+            @Override public void run() {
+                ignores.isIgnored(PATHS.get(next));
+                next = (next + 1) % PATHS.size();
+            }
+        };
+    }
+
+    public static class ByGlob extends GitIgnoreAllocationFrame {
+        @Override Call provideCall() {
+            return lookups(GitIgnoresByGlob.fromRootDir(rootDir.getAbsolutePath()));
+        }
+
+        @Override long budgetInBytesPerCall() { return 2048; }
+    }
+
+    public static class JGit extends GitIgnoreAllocationFrame {
+        @Override Call provideCall() {
+            return lookups(GitIgnoresWithJGit.fromRootDir(rootDir.getAbsolutePath()));
+        }
+
+        @Override long budgetInBytesPerCall() { return 4096; }
+    }
+
+    public static class InMemoryByGlob extends GitIgnoreAllocationFrame {
+        @Override Call provideCall() {
+            return lookups(new GitIgnoresByGlob(CheckIgnoreDifferentialHarness.inMemoryCopyOf(rootDir)));
+        }
+
+        @Override long budgetInBytesPerCall() { return 1024; }
+    }
+
+    public static class SnapshotByGlob extends GitIgnoreAllocationFrame {
+        @Override Call provideCall() throws InterruptedException {
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                return lookups(GitIgnoresByGlob.fromRootDir(rootDir.getAbsolutePath()).reloadSnapshot(rootDir, executor));
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        @Override long budgetInBytesPerCall() { return 1536; }
+    }
+
+    public static class CachedByGlob extends GitIgnoreAllocationFrame {
+        @Override Call provideCall() {
+            return lookups(CachingVcsIgnores.caching(GitIgnoresByGlob.fromRootDir(rootDir.getAbsolutePath()), 64));
+        }
+
+        @Override long budgetInBytesPerCall() { return 0; }
+    }
+
+    public static class WalkingFileSystem extends GitIgnoreAllocationFrame {
+        @Override Call provideCall() {
+            return lookups(GitIgnoresByWalkingFileSystem.fromRootDir(rootDir.getAbsolutePath()));
+        }
+
+        @Override long budgetInBytesPerCall() { return 0; }
+    }
+
+    public static class WalkingSubtrees extends GitIgnoreAllocationFrame {
+        @Override Call provideCall() {
+            return lookups(GitIgnoresByWalkingFileSystem.lazilyFromRootDir(rootDir.getAbsolutePath()));
+        }
+
+        @Override long budgetInBytesPerCall() { return 64; }
+    }
+
+    /**
+     * A call is one listing of a directory.
+     */
+    public static class ListNotIgnoredByGlob extends GitIgnoreAllocationFrame {
+        @Override Call provideCall() {
+            final GitIgnoresByGlob ignores = GitIgnoresByGlob.fromRootDir(rootDir.getAbsolutePath());
+            return new Call() {
+                @Override public void run() {
+                    try {
+                        ignores.listNotIgnored(rootDir, "src/main/resources");
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+
+        @Override long budgetInBytesPerCall() { return 8192; }
+    }
+
+    /**
+     * A call is one walk of the whole working tree, opening and closing the repository as
+     * {@link GitIgnoresByWalkingFileSystem#fromRootDir(String, BaseGitIgnore)} does, and reusing the rules compiled
+     * by earlier walks.
+     */
+    public static class WalkerByGlob extends GitIgnoreAllocationFrame {
+        @Override Call provideCall() {
+            final NotIgnoredByRulesFilter filter = new NotIgnoredByRulesFilter(GitIgnoresByGlob.fromRootDir(rootDir.getAbsolutePath()));
+            return new Call() {
+                @Override public void run() {
+                    Repository repository = null;
+                    try {
+                        repository = GitIgnoresByWalkingFileSystem.openRepository(rootDir.getAbsolutePath());
+                        GitIgnoresByWalkingFileSystem.walk(repository, filter, true);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        if (repository != null) {
+                            repository.close();
+                        }
+                    }
+                }
+            };
+        }
+
+        @Override long budgetInBytesPerCall() { return 98304; }
+    }
+}
@@ -6,6 +6,13 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
@@ -18,7 +25,6 @@ import static org.mutabilitydetector.VcsIgnoredMatcher.ignoredBy;
  * TODO:
  *  - ensure doesn't attempt to do an exact match on directory when entry is a glob
  *  - work with character classes e.g. [:alpha:]
- *  - allow using '?' as a wildcard
  *  - ensure a single * doesn't match multiple directory levels
  *  - test negation of a character class
  */
@@ -33,6 +39,15 @@ public abstract class GitIgnoreTestFrame {
         @Override VcsIgnores provideImplementation(String path) {
             return GitIgnoresByWalkingFileSystem.fromRootDir(path);
         }
+
+        @Ignore("JGit 3.5 has no notion of **, and this variant walks with JGit's own rules")
+        @Test @Override public void doubleWildcardOnBothSidesOfASlashIgnoresTopLevelDirectory() { }
+    }
+
+    public static class WalkingByGlob extends GitIgnoreTestFrame {
+        @Override VcsIgnores provideImplementation(String path) {
+            return GitIgnoresByWalkingFileSystem.fromRootDir(path, GitIgnoresByGlob.fromRootDir(path));
+        }
     }
 
     public static class JGit extends GitIgnoreTestFrame {
@@ -47,6 +62,60 @@ public abstract class GitIgnoreTestFrame {
         }
     }
 
+    public static class PreloadedByGlob extends GitIgnoreTestFrame {
+        @Override VcsIgnores provideImplementation(String path) {
+            GitIgnoresByGlob gitIgnores = GitIgnoresByGlob.fromRootDir(path);
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                gitIgnores.preload(new File(path), executor).awaitReady();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                executor.shutdown();
+            }
+            return gitIgnores;
+        }
+    }
+
+    public static class SnapshotByGlob extends GitIgnoreTestFrame {
+        @Override VcsIgnores provideImplementation(String path) {
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                return GitIgnoresByGlob.fromRootDir(path).reloadSnapshot(new File(path), executor);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    public static class CachedByGlob extends GitIgnoreTestFrame {
+        @Override VcsIgnores provideImplementation(String path) {
+            return CachingVcsIgnores.caching(GitIgnoresByGlob.fromRootDir(path), 16);
+        }
+    }
+
+    public static class InMemoryByGlob extends GitIgnoreTestFrame {
+        @Override VcsIgnores provideImplementation(String path) {
+            return new GitIgnoresByGlob(CheckIgnoreDifferentialHarness.inMemoryCopyOf(new File(path)));
+        }
+    }
+
+    public static class SortedStreamByGlob extends GitIgnoreTestFrame {
+        @Override VcsIgnores provideImplementation(final String path) {
+            final SortedPathEvaluator evaluator = new SortedPathEvaluator(GitIgnoresByGlob.fromRootDir(path));
+            return new VcsIgnores() {
+                @Override public boolean isIgnored(String relativePath) {
+                    boolean isDirectory = new File(path, relativePath).isDirectory();
+                    synchronized (evaluator) {
+                        return evaluator.evaluate(isDirectory ? relativePath + "/" : relativePath).isIgnored();
+                    }
+                }
+            };
+        }
+    }
+
     @Test public void ignoresFileWithExactMatch() throws Exception {
         File rootDir = gitFolder.getRepoDirectory();
 
@@ -219,6 +288,63 @@ public abstract class GitIgnoreTestFrame {
         assertThat("folder/where/some/level/is-ignored/not-ignored-file.java", is(not(ignoredBy(gitIgnores, rootDir))));
     }
 
+    @Test public void doubleWildcardOnBothSidesOfASlashIgnoresTopLevelDirectory() throws Exception {
+        File rootDir = gitFolder.getRepoDirectory();
+        gitFolder.mkdir("folder");
+        gitFolder.mkFileIn("folder/ignored.txt");
+        gitFolder.appendToGitignore("**/**");
+
+        VcsIgnores gitIgnores = provideImplementation(rootDir.getAbsolutePath());
+
+        assertThat("folder", is(ignoredBy(gitIgnores, rootDir)));
+        assertThat("folder/ignored.txt", is(ignoredBy(gitIgnores, rootDir)));
+    }
+
+    @Test public void negatedDoubleWildcardWithTrailingSlashUnignoresTopLevelDirectory() throws Exception {
+        File rootDir = gitFolder.getRepoDirectory();
+        gitFolder.mkdir("folder");
+        gitFolder.mkFileIn("folder/not-ignored.txt");
+        gitFolder.appendToGitignore("folder");
+        gitFolder.appendToGitignore("!**/");
+
+        VcsIgnores gitIgnores = provideImplementation(rootDir.getAbsolutePath());
+
+        assertThat("folder", is(not(ignoredBy(gitIgnores, rootDir))));
+        assertThat("folder/not-ignored.txt", is(not(ignoredBy(gitIgnores, rootDir))));
+    }
+
+    @Test public void directoryEntryWithoutLeadingPathIgnoresDirectoryAtAnyDepth() throws Exception {
+        File rootDir = gitFolder.getRepoDirectory();
+        gitFolder.mkdir("folder");
+        gitFolder.mkdir("folder/build");
+        gitFolder.mkFileIn("folder/build/ignored.txt");
+        gitFolder.mkFileIn("folder/not-ignored.txt");
+        gitFolder.appendToGitignore("build/");
+
+        VcsIgnores gitIgnores = provideImplementation(rootDir.getAbsolutePath());
+
+        assertThat("folder/build", is(ignoredBy(gitIgnores, rootDir)));
+        assertThat("folder/build/ignored.txt", is(ignoredBy(gitIgnores, rootDir)));
+        assertThat("folder/not-ignored.txt", is(not(ignoredBy(gitIgnores, rootDir))));
+    }
+
+    @Test public void questionMarkAndCharacterClassMatchOneCharacter() throws Exception {
+        File rootDir = gitFolder.getRepoDirectory();
+        gitFolder.mkFileIn("ignored1.txt");
+        gitFolder.mkFileIn("ignored22.txt");
+        gitFolder.mkFileIn("fox.log");
+        gitFolder.mkFileIn("foo.log");
+        gitFolder.appendToGitignore("ignored?.txt");
+        gitFolder.appendToGitignore("fo[!o].log");
+
+        VcsIgnores gitIgnores = provideImplementation(rootDir.getAbsolutePath());
+
+        assertThat("ignored1.txt", is(ignoredBy(gitIgnores, rootDir)));
+        assertThat("ignored22.txt", is(not(ignoredBy(gitIgnores, rootDir))));
+        assertThat("fox.log", is(ignoredBy(gitIgnores, rootDir)));
+        assertThat("foo.log", is(not(ignoredBy(gitIgnores, rootDir))));
+    }
+
     @Test public void canNegatePreviouslyIgnoredMatches() throws Exception {
         File rootDir = gitFolder.getRepoDirectory();
         gitFolder.mkdir("folder");
@@ -282,6 +408,54 @@ public abstract class GitIgnoreTestFrame {
         assertThat(weirdDirName +"/ignored.txt", is(ignoredBy(gitIgnores, rootDir)));
     }
 
+    @Test public void answersAlikeFromManyThreadsAtOnce() throws Exception {
+        File rootDir = gitFolder.getRepoDirectory();
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            gitFolder.mkdir("folder" + i);
+            gitFolder.mkFileIn("folder" + i + "/ignored" + i + ".class");
+            gitFolder.mkFileIn("folder" + i + "/not-ignored" + i + ".java");
+            paths.addAll(Arrays.asList("folder" + i, "folder" + i + "/ignored" + i + ".class",
+                    "folder" + i + "/not-ignored" + i + ".java"));
+        }
+        gitFolder.appendToGitignore("*.class\nfolder1?/*.java\n!folder1[0-4]/*.java");
+
+        final VcsIgnores gitIgnores = provideImplementation(rootDir.getAbsolutePath());
+        final List<Boolean> expected = new ArrayList<>();
+        for (String path: paths) {
+            expected.add(gitIgnores.isIgnored(path));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<Boolean>>> answers = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                answers.add(executor.submit(new Callable<List<Boolean>>() {
+                    @Override public List<Boolean> call() {
+                        List<Boolean> answered = new ArrayList<>();
+                        for (int round = 0; round < 200; round++) {
+                            answered.clear();
+                            for (String path: paths) {
+                                answered.add(gitIgnores.isIgnored(path));
+                            }
+                            if (!answered.equals(expected)) {
+                                break;
+                            }
+                        }
+                        return answered;
+                    }
+                }));
+            }
+            for (Future<List<Boolean>> answered: answers) {
+                assertThat(answered.get(), is(expected));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat("folder15/not-ignored15.java", is(ignoredBy(gitIgnores, rootDir)));
+        assertThat("folder12/not-ignored12.java", is(not(ignoredBy(gitIgnores, rootDir))));
+    }
+
     @Test public void closerGitignoreFilesTakePrecedence() throws Exception {
         File rootDir = gitFolder.getRepoDirectory();
         gitFolder.mkdir("folder");
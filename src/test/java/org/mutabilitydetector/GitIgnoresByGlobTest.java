@@ -0,0 +1,66 @@
+package org.mutabilitydetector;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.mutabilitydetector.GitIgnoresByGlob.GitIgnoreRule;
+import org.mutabilitydetector.GitIgnoresByGlob.GlobRules;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class GitIgnoresByGlobTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    @Test public void compilesNoGlobBeforeALookup() throws Exception {
+        GlobRules rules = (GlobRules) engine().compile(rulesOf("*.tmp", "*.log", "build-*/", "*.bak", "target/"));
+
+        assertThat(rules.globsCompiled(), is(0));
+        assertThat(rules.globsNeverCompiled(), is(4));
+    }
+
+    @Test public void leavesTheGlobsAboveTheLastMatchUncompiled() throws Exception {
+        gitFolder.appendToGitignore("*.tmp\n*.log\nbuild-*/\n*.bak\ntarget/\n");
+        GitIgnoresByGlob engine = engine();
+        assertThat(engine.globsCompiled(), is(0));
+
+        assertThat(engine.isIgnored("debug.log"), is(true));
+
+        assertThat(engine.globsCompiled(), is(2));
+        assertThat(engine.globsNeverCompiled(), is(2));
+    }
+
+    @Test public void countsAFileSharedByDirectoriesOnce() throws Exception {
+        String sharedContent = "# generated\n*.tmp\n*.log\n*.log\nbuild-*/\n*.bak\n";
+        gitFolder.mkdir("a");
+        gitFolder.mkdir("b");
+        gitFolder.appendToGitignore(sharedContent, new File(gitFolder.getRepoDirectory(), "a"));
+        gitFolder.appendToGitignore(sharedContent, new File(gitFolder.getRepoDirectory(), "b"));
+        GitIgnoresByGlob engine = new GitIgnoresByGlob(FileBasedGitIgnore.root(gitFolder.getRepoDirectory()),
+                new CompiledRulesCache());
+
+        assertThat(engine.isIgnored("a/old.bak"), is(true));
+        assertThat(engine.isIgnored("b/old.bak"), is(true));
+
+        assertThat(engine.loadedRules().size(), is(1));
+        assertThat(RuleSetOptimizer.removedRules(engine.loadedRules().iterator().next()) > 0, is(true));
+        assertThat(engine.globsCompiled(), is(1));
+        assertThat(engine.globsNeverCompiled(), is(3));
+    }
+
+    private GitIgnoresByGlob engine() {
+        return GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+    }
+
+    private static List<IgnoreRule> rulesOf(String... lines) {
+        List<IgnoreRule> rules = new ArrayList<>();
+        for (String line: lines) {
+            rules.add(new GitIgnoreRule(line));
+        }
+        return rules;
+    }
+}
@@ -0,0 +1,81 @@
+package org.mutabilitydetector;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mutabilitydetector.GitIgnoresByGlob.GitIgnoreRule;
+import org.mutabilitydetector.GitIgnoresWithJGit.JGitRules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class GitIgnoresWithJGitTest {
+
+    private static final int THREADS = 16;
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+    @After public void shutDown() {
+        pool.shutdownNow();
+    }
+
+    @Test public void keepsABoundedNumberOfCopiesAfterManyThreadsLookUpAtOnce() throws Exception {
+        final JGitRules rules = compile("*.log", "!keep.log", "build/", "**/generated/*.java");
+        final CountDownLatch allStarted = new CountDownLatch(THREADS);
+
+        List<Future<Integer>> lookups = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            lookups.add(pool.submit(new Callable<Integer>() {
+                @Override public Integer call() throws Exception {
+                    allStarted.countDown();
+                    allStarted.await();
+                    int ignored = 0;
+                    for (int j = 0; j < 500; j++) {
+                        ignored += rules.lastMatchingRule("src/debug" + j + ".log", false) == 0 ? 1 : 0;
+                    }
+                    return ignored;
+                }
+            }));
+        }
+
+        for (Future<Integer> lookup: lookups) {
+            assertThat(lookup.get(), is(500));
+        }
+        assertThat(rules.idleMatchers() <= JGitRules.MAXIMUM_IDLE_MATCHERS, is(true));
+        assertThat(rules.lastMatchingRule("keep.log", false), is(1));
+        assertThat(rules.lastMatchingRule("a/generated/Main.java", false), is(3));
+    }
+
+    @Test public void countsThePooledCopiesInTheEstimate() throws Exception {
+        JGitRules rules = compile("*.log", "!keep.log", "build/");
+        GitIgnoresByGlob globs = GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+        CompiledIgnoreRules sameRulesByGlob = globs.compile(rulesOf("*.log", "!keep.log", "build/"));
+
+        assertThat(CompiledRulesCache.estimatedBytes(rules),
+                is(CompiledRulesCache.estimatedBytes(sameRulesByGlob) + rules.estimatedRetainedBytes()));
+    }
+
+    private JGitRules compile(String... lines) {
+        GitIgnoresWithJGit engine = GitIgnoresWithJGit.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+        return (JGitRules) engine.compile(rulesOf(lines));
+    }
+
+    private static List<IgnoreRule> rulesOf(String... lines) {
+        List<IgnoreRule> rules = new ArrayList<>();
+        for (String line: Arrays.asList(lines)) {
+            rules.add(new GitIgnoreRule(line));
+        }
+        return rules;
+    }
+}
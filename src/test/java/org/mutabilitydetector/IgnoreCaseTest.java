@@ -0,0 +1,100 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.FS;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class IgnoreCaseTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    @Test public void rulesMatchRegardlessOfCaseUnderIgnoreCase() throws Exception {
+        setIgnoreCase(new File(gitFolder.getRepoDirectory(), Constants.DOT_GIT));
+        gitFolder.mkdir("Build");
+        gitFolder.mkFileIn("Debug.LOG");
+        gitFolder.mkFileIn("notes.Txt");
+        gitFolder.appendToGitignore("*.log\nbuild/\nNOTES.*");
+
+        for (BaseGitIgnore engine: engines()) {
+            assertThat(engine.isIgnoreCase(), is(true));
+            assertThat(engine.isIgnored("Debug.LOG"), is(true));
+            assertThat(engine.isIgnored("Build"), is(true));
+            assertThat(engine.isIgnored("notes.Txt"), is(true));
+        }
+    }
+
+    @Test public void rulesAreCaseSensitiveByDefault() throws Exception {
+        gitFolder.mkFileIn("Debug.LOG");
+        gitFolder.appendToGitignore("*.log");
+
+        for (BaseGitIgnore engine: engines()) {
+            assertThat(engine.isIgnoreCase(), is(false));
+            assertThat(engine.isIgnored("Debug.LOG"), is(false));
+        }
+    }
+
+    @Test public void escapesAndRangesKeepTheirMeaningUnderIgnoreCase() throws Exception {
+        setIgnoreCase(new File(gitFolder.getRepoDirectory(), Constants.DOT_GIT));
+        gitFolder.mkFileIn("wiki-home.md");
+        gitFolder.mkFileIn("_.txt");
+        gitFolder.mkFileIn("a-b.txt");
+        gitFolder.appendToGitignore("\\Wiki*.md\n[Z-a].txt");
+        GitIgnoresByGlob engine = GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+
+        assertThat(engine.isIgnored("wiki-home.md"), is(true));
+        assertThat(engine.isIgnored("_.txt"), is(true));
+        assertThat(engine.isIgnored("a-b.txt"), is(false));
+    }
+
+    @Test public void readsTheConfigOfASubmoduleThroughItsGitFile() throws Exception {
+        File gitDir = gitFolder.newFolder("modules", "lib");
+        Git.init().setBare(true).setDirectory(gitDir).call().close();
+        setIgnoreCase(gitDir);
+        File workTree = gitFolder.newFolder("lib");
+        writeGitFile(workTree, gitDir.getAbsolutePath());
+
+        assertThat(GitIgnoresByGlob.fromRootDir(workTree.getAbsolutePath()).isIgnoreCase(), is(true));
+    }
+
+    @Test public void readsTheConfigOfTheRepositoryALinkedWorkTreeBelongsTo() throws Exception {
+        File commonDir = new File(gitFolder.getRepoDirectory(), Constants.DOT_GIT);
+        setIgnoreCase(commonDir);
+        File gitDir = new File(commonDir, "worktrees/feature");
+        assertThat(gitDir.mkdirs(), is(true));
+        Files.write(new File(gitDir, "commondir").toPath(), Arrays.asList("../.."), UTF_8);
+        File workTree = gitFolder.newFolder("feature");
+        writeGitFile(workTree, gitDir.getAbsolutePath());
+
+        assertThat(GitIgnoresByGlob.fromRootDir(workTree.getAbsolutePath()).isIgnoreCase(), is(true));
+    }
+
+    private BaseGitIgnore[] engines() {
+        String rootDir = gitFolder.getRepoDirectory().getAbsolutePath();
+        return new BaseGitIgnore[] { GitIgnoresByGlob.fromRootDir(rootDir), GitIgnoresWithJGit.fromRootDir(rootDir) };
+    }
+
+    private static void setIgnoreCase(File gitDir) throws Exception {
+        FileBasedConfig config = new FileBasedConfig(new File(gitDir, Constants.CONFIG), FS.DETECTED);
+        config.load();
+        config.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, "ignorecase", true);
+        config.save();
+    }
+
+    private static void writeGitFile(File workTree, String gitDir) throws Exception {
+        Files.write(new File(workTree, Constants.DOT_GIT).toPath(), Arrays.asList("gitdir: " + gitDir), UTF_8);
+    }
+}
@@ -0,0 +1,93 @@
+package org.mutabilitydetector;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class IgnoreDeltaTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    @Test public void reportsOnlyThePathsWhoseStatusChanged() throws Exception {
+        IgnoreDelta delta = IgnoreDelta.between(engine(), "", "*.log\n", "*.tmp\n");
+
+        Map<String, Boolean> changes = delta.changes(Arrays.asList("debug.log", "Main.java", "scratch.tmp", "src/old.log"));
+
+        assertThat(changes, is(expected("debug.log", false, "scratch.tmp", true, "src/old.log", false)));
+    }
+
+    @Test public void countsTheRulesRemovedAndAdded() throws Exception {
+        IgnoreDelta delta = IgnoreDelta.between(engine(), "", "*.log\ntarget/\n", "*.log\n*.tmp\nbuild/\n");
+
+        assertThat(delta.removedRules(), is(1));
+        assertThat(delta.addedRules(), is(2));
+    }
+
+    @Test public void skipsPathsOutsideTheChangedDirectory() throws Exception {
+        IgnoreDelta delta = IgnoreDelta.between(engine(), "src", "", "*.log\n");
+
+        Map<String, Boolean> changes = delta.changes(Arrays.asList("debug.log", "src/debug.log", "srcfoo/debug.log"));
+
+        assertThat(changes, is(expected("src/debug.log", true)));
+        assertThat(delta.pathsConsidered(), is(1L));
+    }
+
+    @Test public void evaluatesOnlyThePathsTheChangedRulesCouldMatch() throws Exception {
+        IgnoreDelta delta = IgnoreDelta.between(engine(), "", "*.log\n", "*.log\n*.tmp\n");
+
+        Map<String, Boolean> changes = delta.changes(Arrays.asList("a.java", "b.java", "debug.log", "scratch.tmp"));
+
+        assertThat(changes, is(expected("scratch.tmp", true)));
+        assertThat(delta.pathsConsidered(), is(4L));
+        assertThat(delta.candidatesEvaluated(), is(1L));
+    }
+
+    @Test public void reportsPathsUnderAChangedDirectoryRule() throws Exception {
+        IgnoreDelta delta = IgnoreDelta.between(engine(), "", "", "build/\n");
+
+        Map<String, Boolean> changes = delta.changes(Arrays.asList("build/classes/A.class", "src/A.java"));
+
+        assertThat(changes, is(expected("build/classes/A.class", true)));
+    }
+
+    @Test public void findsChangedFilesAndDirectoriesInTheWorkingTree() throws Exception {
+        gitFolder.mkdir("build");
+        gitFolder.mkFileIn("build/A.class");
+        gitFolder.mkFileIn("debug.log");
+        gitFolder.mkFileIn("Main.java");
+        IgnoreDelta delta = IgnoreDelta.between(engine(), "", "*.log\n", "build/\n");
+
+        Map<String, Boolean> changes = delta.changesInWorkingTree(gitFolder.getRepoDirectory());
+
+        assertThat(changes.get("build"), is(true));
+        assertThat(changes.get("build/A.class"), is(true));
+        assertThat(changes.get("debug.log"), is(false));
+        assertThat(changes.containsKey("Main.java"), is(false));
+    }
+
+    @Test public void noChangesWhenTheContentIsTheSame() throws Exception {
+        IgnoreDelta delta = IgnoreDelta.between(engine(), "", "*.log\n", "*.log\n");
+
+        assertThat(delta.changes(Arrays.asList("debug.log", "Main.java")), is(Collections.<String, Boolean>emptyMap()));
+        assertThat(delta.candidatesEvaluated(), is(0L));
+    }
+
+    private GitIgnoresByGlob engine() {
+        return GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+    }
+
+    private static Map<String, Boolean> expected(Object... pathsAndStatuses) {
+        Map<String, Boolean> expected = new LinkedHashMap<>();
+        for (int i = 0; i < pathsAndStatuses.length; i += 2) {
+            expected.put((String) pathsAndStatuses[i], (Boolean) pathsAndStatuses[i + 1]);
+        }
+        return expected;
+    }
+}
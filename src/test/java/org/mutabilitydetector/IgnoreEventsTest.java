@@ -0,0 +1,121 @@
+package org.mutabilitydetector;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class IgnoreEventsTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    private final Recorder recorder = new Recorder();
+
+    @After public void disableEvents() {
+        IgnoreEvents.disable();
+    }
+
+    @Test public void deliversLookupsWithTheirDepthDecisionAndCacheHit() throws Exception {
+        gitFolder.mkdir("src");
+        gitFolder.mkFileIn("src/debug.log");
+        gitFolder.appendToGitignore("*.log");
+        GitIgnoresByGlob engine = engine();
+        IgnoreEvents.enable(recorder, IgnoreEvents.Thresholds.ALL);
+
+        engine.explain("src/debug.log", false);
+        engine.explain("src/debug.log", false);
+
+        assertThat(recorder.lookups, is(Arrays.asList(
+                "src/debug.log depth=2 ignored=true rule=0 cacheHit=false",
+                "src/debug.log depth=2 ignored=true rule=0 cacheHit=true")));
+    }
+
+    @Test public void deliversEachLoadOfRules() throws Exception {
+        gitFolder.mkdir("a");
+        gitFolder.mkdir("b");
+        gitFolder.appendToGitignore("*.log\nbuild/", new File(gitFolder.getRepoDirectory(), "a"));
+        gitFolder.appendToGitignore("*.log\nbuild/", new File(gitFolder.getRepoDirectory(), "b"));
+        GitIgnoresByGlob engine = new GitIgnoresByGlob(FileBasedGitIgnore.root(gitFolder.getRepoDirectory()),
+                new CompiledRulesCache());
+        IgnoreEvents.enable(recorder, IgnoreEvents.Thresholds.ALL);
+
+        engine.explain("a/x", false);
+        engine.explain("b/x", false);
+
+        assertThat(recorder.loads, is(Arrays.asList(
+                "a characters=13 rules=2 cacheHit=false",
+                "b characters=13 rules=2 cacheHit=true")));
+    }
+
+    @Test public void deliversWalksWithTheSubtreesPruned() throws Exception {
+        gitFolder.mkdir("build");
+        gitFolder.mkFileIn("build/A.class");
+        gitFolder.mkFileIn("Main.java");
+        gitFolder.appendToGitignore("build/");
+        String rootDir = gitFolder.getRepoDirectory().getAbsolutePath();
+        GitIgnoresByGlob engine = engine();
+        IgnoreEvents.enable(recorder, IgnoreEvents.Thresholds.ALL);
+
+        GitIgnoresByWalkingFileSystem.fromRootDir(rootDir, engine);
+
+        assertThat(recorder.walks, is(Arrays.asList(new File(rootDir).getPath() + " visited=3 pruned=1")));
+    }
+
+    @Test public void leavesOutEventsShorterThanTheirThreshold() throws Exception {
+        gitFolder.mkFileIn("debug.log");
+        gitFolder.appendToGitignore("*.log");
+        GitIgnoresByGlob engine = engine();
+        IgnoreEvents.enable(recorder, new IgnoreEvents.Thresholds(Long.MAX_VALUE, 0, Long.MAX_VALUE));
+
+        engine.explain("debug.log", false);
+
+        assertThat(recorder.lookups.isEmpty(), is(true));
+        assertThat(recorder.loads, is(Arrays.asList(" characters=6 rules=1 cacheHit=false")));
+    }
+
+    @Test public void deliversNothingOnceDisabled() throws Exception {
+        gitFolder.mkFileIn("debug.log");
+        gitFolder.appendToGitignore("*.log");
+        GitIgnoresByGlob engine = engine();
+        IgnoreEvents.enable(recorder, IgnoreEvents.Thresholds.ALL);
+        IgnoreEvents.disable();
+
+        engine.explain("debug.log", false);
+
+        assertThat(IgnoreEvents.isEnabled(), is(false));
+        assertThat(recorder.lookups.isEmpty() && recorder.loads.isEmpty(), is(true));
+    }
+
+    private GitIgnoresByGlob engine() {
+        return GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+    }
+
+    private static final class Recorder implements IgnoreEvents.Listener {
+        final List<String> lookups = new ArrayList<>();
+        final List<String> loads = new ArrayList<>();
+        final List<String> walks = new ArrayList<>();
+
+        @Override
+        public synchronized void lookup(String path, int depth, IgnoreDecision decision, long durationNanos, boolean cacheHit) {
+            lookups.add(String.format("%s depth=%d ignored=%s rule=%d cacheHit=%s",
+                    path, depth, decision.isIgnored(), decision.rule(), cacheHit));
+        }
+
+        @Override
+        public synchronized void rulesLoaded(String directory, long characters, int ruleCount, long loadNanos, boolean cacheHit) {
+            loads.add(String.format("%s characters=%d rules=%d cacheHit=%s", directory, characters, ruleCount, cacheHit));
+        }
+
+        @Override
+        public synchronized void walk(String rootDir, long entriesVisited, long subtreesPruned, long durationNanos) {
+            walks.add(String.format("%s visited=%d pruned=%d", rootDir, entriesVisited, subtreesPruned));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.mutabilitydetector;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ListNotIgnoredTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    @Test public void listsTheEntriesOfTheRootWhichAreNotIgnoredLeavingOutTheGitDirectory() throws Exception {
+        gitFolder.mkdir("build");
+        gitFolder.mkdir("src");
+        gitFolder.mkFileIn("debug.log");
+        gitFolder.mkFileIn("README");
+        gitFolder.appendToGitignore("*.log\nbuild/");
+
+        List<String> notIgnored = engine().listNotIgnored(gitFolder.getRepoDirectory(), "");
+
+        assertThat(asSet(notIgnored), is(asSet(".gitignore", "README", "src")));
+    }
+
+    @Test public void appliesTheRulesOfTheDirectoryAndItsParents() throws Exception {
+        gitFolder.mkdir("src");
+        gitFolder.mkdir("src/generated");
+        gitFolder.mkFileIn("src/Main.java");
+        gitFolder.mkFileIn("src/debug.log");
+        gitFolder.mkFileIn("src/keep.log");
+        gitFolder.appendToGitignore("*.log");
+        gitFolder.appendToGitignore("generated/\n!keep.log", new File(gitFolder.getRepoDirectory(), "src"));
+
+        List<String> notIgnored = engine().listNotIgnored(gitFolder.getRepoDirectory(), "src");
+
+        assertThat(asSet(notIgnored), is(asSet(".gitignore", "Main.java", "keep.log")));
+    }
+
+    @Test public void directoryOnlyRulesDoNotApplyToFilesOfTheSameName() throws Exception {
+        gitFolder.mkdir("lib");
+        gitFolder.mkdir("lib/out");
+        gitFolder.mkFileIn("lib/output");
+        gitFolder.appendToGitignore("out/\noutput/");
+
+        List<String> notIgnored = engine().listNotIgnored(gitFolder.getRepoDirectory(), "lib");
+
+        assertThat(asSet(notIgnored), is(asSet("output")));
+    }
+
+    @Test public void listsEntriesUnderAnIgnoredDirectoryAsIgnored() throws Exception {
+        gitFolder.mkdir("build");
+        gitFolder.mkFileIn("build/A.class");
+        gitFolder.appendToGitignore("build/");
+
+        List<String> notIgnored = engine().listNotIgnored(gitFolder.getRepoDirectory(), "build");
+
+        assertThat(notIgnored.isEmpty(), is(true));
+    }
+
+    private GitIgnoresByGlob engine() {
+        return GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+    }
+
+    private static Set<String> asSet(List<String> names) {
+        return new HashSet<>(names);
+    }
+
+    private static Set<String> asSet(String... names) {
+        return asSet(Arrays.asList(names));
+    }
+}
@@ -0,0 +1,112 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class NestedRepositoryTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After public void shutdownExecutor() {
+        executor.shutdown();
+    }
+
+    @Test public void outerRulesDoNotApplyInsideANestedRepository() throws Exception {
+        nestedRepository("lib");
+        gitFolder.mkFileIn("lib/debug.log");
+        gitFolder.mkFileIn("debug.log");
+        gitFolder.appendToGitignore("*.log");
+
+        GitIgnoresByGlob engine = engine();
+
+        assertThat(engine.isIgnored("debug.log"), is(true));
+        assertThat(engine.isIgnored("lib/debug.log"), is(false));
+    }
+
+    @Test public void nestedRepositoryIsGovernedByItsOwnRules() throws Exception {
+        nestedRepository("lib");
+        gitFolder.mkdir("lib/src");
+        gitFolder.mkFileIn("lib/src/scratch.tmp");
+        gitFolder.mkFileIn("lib/src/Main.java");
+        gitFolder.appendToGitignore("*.tmp", new File(gitFolder.getRepoDirectory(), "lib"));
+
+        GitIgnoresByGlob engine = engine();
+
+        assertThat(engine.isIgnored("lib/src/scratch.tmp"), is(true));
+        assertThat(engine.isIgnored("lib/src/Main.java"), is(false));
+    }
+
+    @Test public void outerRulesStillDecideWhetherTheNestedRepositoryIsIgnored() throws Exception {
+        nestedRepository("vendor");
+        gitFolder.mkFileIn("vendor/README");
+        gitFolder.appendToGitignore("vendor/");
+
+        GitIgnoresByGlob engine = engine();
+
+        assertThat(engine.isIgnored("vendor"), is(true));
+        assertThat(engine.isIgnored("vendor/README"), is(true));
+    }
+
+    @Test public void gitDirectoryOfANestedRepositoryIsInternal() throws Exception {
+        nestedRepository("lib");
+
+        assertThat(engine().explain("lib/.git/config"), is(IgnoreDecision.INTERNAL));
+    }
+
+    @Test public void submoduleWithAGitFileIsABoundaryToo() throws Exception {
+        gitFolder.mkdir("module");
+        gitFolder.mkFileIn("module/debug.log");
+        Files.write(new File(gitFolder.getRepoDirectory(), "module/.git").toPath(),
+                Arrays.asList("gitdir: ../.git/modules/module"), Charset.forName("UTF-8"));
+        gitFolder.appendToGitignore("*.log");
+
+        assertThat(engine().isIgnored("module/debug.log"), is(false));
+    }
+
+    @Test public void attributesStopAtTheNestedRepository() throws Exception {
+        nestedRepository("lib");
+        gitFolder.mkFileIn("lib/notes.txt");
+        Files.write(new File(gitFolder.getRepoDirectory(), GitAttributeRule.FILENAME).toPath(),
+                Arrays.asList("*.txt text"), Charset.forName("UTF-8"));
+
+        assertThat(engine().explainWithAttributes("lib/notes.txt").attribute("text"), is(nullValue()));
+    }
+
+    @Test public void preloadedRulesGiveTheSameAnswers() throws Exception {
+        nestedRepository("lib");
+        gitFolder.mkFileIn("lib/debug.log");
+        gitFolder.mkFileIn("lib/scratch.tmp");
+        gitFolder.appendToGitignore("*.log");
+        gitFolder.appendToGitignore("*.tmp", new File(gitFolder.getRepoDirectory(), "lib"));
+        GitIgnoresByGlob engine = engine();
+
+        engine.preload(gitFolder.getRepoDirectory(), executor).awaitReady();
+
+        assertThat(engine.isIgnored("lib/debug.log"), is(false));
+        assertThat(engine.isIgnored("lib/scratch.tmp"), is(true));
+    }
+
+    private void nestedRepository(String directory) throws Exception {
+        gitFolder.mkdir(directory);
+        Git.init().setDirectory(new File(gitFolder.getRepoDirectory(), directory)).call().close();
+    }
+
+    private GitIgnoresByGlob engine() {
+        return GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+    }
+}
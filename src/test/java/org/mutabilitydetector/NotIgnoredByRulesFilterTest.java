@@ -0,0 +1,79 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class NotIgnoredByRulesFilterTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    @Test public void skipsIgnoredDirectoriesWithoutDescending() throws Exception {
+        gitFolder.mkdir("build");
+        gitFolder.mkFileIn("build/A.class");
+        gitFolder.mkFileIn("Main.java");
+        gitFolder.appendToGitignore("build/");
+
+        List<String> walked = walk();
+
+        assertThat(walked, hasItem("Main.java"));
+        assertThat(walked, not(hasItem("build")));
+        assertThat(walked, not(hasItem("build/A.class")));
+    }
+
+    @Test public void directoryRulesApplyToNestedRepositories() throws Exception {
+        gitFolder.mkdir("vendor");
+        Git.init().setDirectory(new File(gitFolder.getRepoDirectory(), "vendor")).call().close();
+        gitFolder.mkdir("module");
+        Git.init().setDirectory(new File(gitFolder.getRepoDirectory(), "module")).call().close();
+        gitFolder.appendToGitignore("vendor/");
+
+        List<String> walked = walk();
+
+        assertThat(walked, not(hasItem("vendor")));
+        assertThat(walked, hasItem("module"));
+    }
+
+    @Test public void fileRulesDoNotApplyToDirectoriesOfTheSameName() throws Exception {
+        gitFolder.mkdir("logs.d");
+        gitFolder.mkFileIn("logs.d/today");
+        gitFolder.appendToGitignore("logs.d\n!logs.d/\n");
+
+        assertThat(walk().contains("logs.d/today"), is(true));
+    }
+
+    private List<String> walk() throws Exception {
+        File rootDir = gitFolder.getRepoDirectory();
+        Repository repository = FileRepositoryBuilder.create(new File(rootDir, ".git"));
+        try {
+            TreeWalk walker = new TreeWalk(repository);
+            walker.addTree(new FileTreeIterator(repository));
+            walker.setFilter(new NotIgnoredByRulesFilter(GitIgnoresByGlob.fromRootDir(rootDir.getAbsolutePath())));
+            walker.setRecursive(false);
+            List<String> walked = new ArrayList<>();
+            while (walker.next()) {
+                walked.add(walker.getPathString());
+                if (walker.isSubtree()) {
+                    walker.enterSubtree();
+                }
+            }
+            walker.release();
+            return walked;
+        } finally {
+            repository.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.mutabilitydetector;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.mutabilitydetector.GitIgnoresByGlob.GitIgnoreRule;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RuleSetOptimizerTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    @Test public void countsTheLinesDroppedFromEachFile() throws Exception {
+        createTree();
+        GitIgnoresByGlob engine = engine();
+
+        engine.explain("sub/x", false);
+        engine.explain("other/x", false);
+
+        Map<String, Integer> expected = new TreeMap<>();
+        expected.put("", 3);
+        expected.put("sub", 2);
+        assertThat(engine.rulesRemovedByOptimizer(), is(expected));
+    }
+
+    @Test public void decisionsNameTheLineOfTheOriginalFile() throws Exception {
+        createTree();
+
+        for (BaseGitIgnore engine: new BaseGitIgnore[] { engine(), GitIgnoresWithJGit.fromRootDir(rootDir()) }) {
+            assertDecision(engine.explain("debug.log", false), true, "", 5, "*.log");
+            assertDecision(engine.explain("keep.log", false), false, "", 6, "!keep.log");
+            assertDecision(engine.explain("build", true), true, "", 1, "build/");
+            assertDecision(engine.explain("sub/x", false), true, "sub", 2, "*");
+            assertDecision(engine.explain("sub/c", false), false, "sub", 3, "!c");
+        }
+    }
+
+    @Test public void droppingLinesChangesNoDecision() throws Exception {
+        GitIgnoresByGlob engine = engine();
+        List<IgnoreRule> rules = new ArrayList<>();
+        for (String line: Arrays.asList("# build output", "build/", "", "*.log", "*.tmp", "!*.tmp", "*.log", "!keep.log")) {
+            rules.add(new GitIgnoreRule(line));
+        }
+
+        CompiledIgnoreRules optimized = engine.compileIgnoreFile(rules);
+        CompiledIgnoreRules plain = engine.compile(rules);
+
+        assertThat(RuleSetOptimizer.removedRules(optimized), is(4));
+        for (String path: Arrays.asList("build", "debug.log", "keep.log", "scratch.tmp", "Main.java")) {
+            boolean isDirectory = path.equals("build");
+            assertThat(path, optimized.lastMatchingRule(path, isDirectory), is(plain.lastMatchingRule(path, isDirectory)));
+        }
+    }
+
+    private static void assertDecision(IgnoreDecision decision, boolean ignored, String source, int rule, String definition) {
+        assertThat(decision.isIgnored(), is(ignored));
+        assertThat(decision.source(), is(source));
+        assertThat(decision.rule(), is(rule));
+        assertThat(decision.definition(), is(definition));
+    }
+
+    private void createTree() throws Exception {
+        gitFolder.mkdir("build");
+        gitFolder.mkdir("sub");
+        gitFolder.mkdir("other");
+        gitFolder.appendToGitignore("# build output\nbuild/\n\n*.log\n*.tmp\n*.log\n!keep.log");
+        gitFolder.appendToGitignore("a\nb\n*\n!c", new File(rootDir(), "sub"));
+        gitFolder.appendToGitignore("x", new File(rootDir(), "other"));
+    }
+
+    private String rootDir() {
+        return gitFolder.getRepoDirectory().getAbsolutePath();
+    }
+
+    private GitIgnoresByGlob engine() {
+        return GitIgnoresByGlob.fromRootDir(rootDir());
+    }
+}
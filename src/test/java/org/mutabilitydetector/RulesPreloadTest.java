@@ -0,0 +1,76 @@
+package org.mutabilitydetector;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mutabilitydetector.VcsIgnoredMatcher.ignoredBy;
+
+public class RulesPreloadTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After public void shutdownExecutor() {
+        executor.shutdown();
+    }
+
+    @Test public void preloadIsIncompleteWhenRulesFailToCompile() throws Exception {
+        File rootDir = gitFolder.getRepoDirectory();
+        gitFolder.mkdir("folder");
+        gitFolder.mkFileIn("folder/ignored.txt");
+        gitFolder.appendToGitignore("ignored.txt");
+        gitFolder.appendToGitignore("does-not-compile", new File(rootDir, "folder"));
+
+        BaseGitIgnore gitIgnores = new FailingToCompile(rootDir);
+        RulesPreload preload = gitIgnores.preload(rootDir, executor);
+        preload.awaitReady();
+
+        assertThat(preload.isReady(), is(true));
+        assertThat(preload.isComplete(), is(false));
+        assertThat(preload.filesLoaded(), is(1));
+    }
+
+    @Test public void completePreloadCountsTheTimeSpentReadingFiles() throws Exception {
+        File rootDir = gitFolder.getRepoDirectory();
+        gitFolder.mkdir("folder");
+        gitFolder.mkFileIn("folder/ignored.txt");
+        gitFolder.mkFileIn("folder/not-ignored.txt");
+        gitFolder.appendToGitignore("ignored.txt", new File(rootDir, "folder"));
+
+        GitIgnoresByGlob gitIgnores = GitIgnoresByGlob.fromRootDir(rootDir.getAbsolutePath());
+        RulesPreload preload = gitIgnores.preload(rootDir, executor);
+        preload.awaitReady();
+
+        assertThat(preload.isComplete(), is(true));
+        assertThat(preload.filesLoaded(), is(1));
+        assertThat(preload.parseNanos() > 0, is(true));
+        assertThat("folder/ignored.txt", is(ignoredBy(gitIgnores, rootDir)));
+        assertThat("folder/not-ignored.txt", is(not(ignoredBy(gitIgnores, rootDir))));
+    }
+
+    private static final class FailingToCompile extends BaseGitIgnore {
+        FailingToCompile(File rootDir) {
+            super(FileBasedGitIgnore.root(rootDir));
+        }
+
+        @Override
+        protected CompiledIgnoreRules compile(List<IgnoreRule> rules) {
+            for (IgnoreRule rule: rules) {
+                if (rule.definition().equals("does-not-compile")) {
+                    throw new IllegalArgumentException(rule.definition());
+                }
+            }
+            return new GitIgnoresWithJGit.JGitRules(rules, false);
+        }
+    }
+}
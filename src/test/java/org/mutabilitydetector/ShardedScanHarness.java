@@ -0,0 +1,106 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.api.Git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scans one repository with 1, 2, 4... worker JVMs, each walking its part of a plan made up front and writing a
+ * {@link SnapshotShard}, then merges the shards and checks the result against a walk by a single
+ * {@link GitIgnoresByWalkingFileSystem}. Reports the scan time for each worker count. Without a repository, a synthetic one is generated. Run it with:
+ * <pre>
+ *   java org.mutabilitydetector.ShardedScanHarness [repository root] [maximum workers]
+ * </pre>
+ */
+public final class ShardedScanHarness {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        File rootDir = args.length > 0 ? new File(args[0]) : generateRepository(40, 40, 20);
+        int maximumWorkers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        try {
+            compare(rootDir, maximumWorkers);
+        } finally {
+            if (args.length == 0) {
+                CheckIgnoreDifferentialHarness.Scenario.deleteRecursively(rootDir.toPath());
+            }
+        }
+    }
+
+    private static void compare(File rootDir, int maximumWorkers) throws Exception {
+
+        List<String> expected = new ArrayList<>(SnapshotShard.scan(rootDir, SnapshotShard.prefixes(rootDir, 1)).entries());
+        System.out.printf("%s: %d files not ignored%n", rootDir, expected.size());
+
+        for (int workers = 1; workers <= maximumWorkers; workers *= 2) {
+            Path shardDir = Files.createTempDirectory("snapshot-shards");
+            long start = System.nanoTime();
+            File planFile = shardDir.resolve("plan").toFile();
+            SnapshotShard.writePlan(SnapshotShard.plan(rootDir, workers), planFile);
+            List<Process> processes = new ArrayList<>();
+            List<File> shardFiles = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                File shardFile = shardDir.resolve("shard-" + i).toFile();
+                shardFiles.add(shardFile);
+                processes.add(new ProcessBuilder(javaExecutable(), "-cp", System.getProperty("java.class.path"),
+                        SnapshotShard.class.getName(), "scan", rootDir.getAbsolutePath(),
+                        planFile.getAbsolutePath(), String.valueOf(i), shardFile.getAbsolutePath())
+                        .inheritIO().start());
+            }
+            for (Process process: processes) {
+                if (process.waitFor() != 0) {
+                    throw new IllegalStateException("worker failed with exit code " + process.exitValue());
+                }
+            }
+            long scanNanos = System.nanoTime() - start;
+
+            long mergeStart = System.nanoTime();
+            List<SnapshotShard> shards = new ArrayList<>();
+            for (File shardFile: shardFiles) {
+                shards.add(SnapshotShard.read(shardFile));
+            }
+            SnapshotShard merged = SnapshotShard.merge(shards);
+            long mergeNanos = System.nanoTime() - mergeStart;
+
+            System.out.printf("workers=%-3d scan=%7.1fms merge=%6.1fms entries=%d %s%n", workers, scanNanos / 1e6,
+                    mergeNanos / 1e6, merged.entries().size(), merged.entries().equals(expected) ? "ok" : "MISMATCH");
+            for (File shardFile: shardFiles) {
+                Files.delete(shardFile.toPath());
+            }
+            Files.delete(planFile.toPath());
+            Files.delete(shardDir);
+        }
+    }
+
+    private static String javaExecutable() {
+        return new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+    }
+
+    /**
+     * A tree of top-level directories, each with subdirectories of files, of which a few are ignored.
+     */
+    private static File generateRepository(int topLevel, int perDirectory, int filesPerDirectory) throws Exception {
+        Path rootDir = Files.createTempDirectory("sharded-scan-harness");
+        Git.init().setDirectory(rootDir.toFile()).call().getRepository().close();
+        Files.write(rootDir.resolve(".gitignore"), Arrays.asList("*.log", "build/"), UTF_8);
+        for (int i = 0; i < topLevel; i++) {
+            for (int j = 0; j < perDirectory; j++) {
+                Path directory = Files.createDirectories(rootDir.resolve("module" + i).resolve(j % 5 == 0 ? "build" + j + "/build" : "dir" + j));
+                for (int k = 0; k < filesPerDirectory; k++) {
+                    Files.createFile(directory.resolve(k % 4 == 0 ? "file" + k + ".log" : "file" + k + ".txt"));
+                }
+            }
+        }
+        return rootDir.toFile();
+    }
+
+    private ShardedScanHarness() {}
+}
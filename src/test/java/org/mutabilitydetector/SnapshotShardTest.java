@@ -0,0 +1,72 @@
+package org.mutabilitydetector;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SnapshotShardTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    @Test public void planLeavesOutIgnoredPaths() throws Exception {
+        createTree();
+
+        List<String> planned = new ArrayList<>();
+        for (List<String> prefixes: SnapshotShard.plan(gitFolder.getRepoDirectory(), 4)) {
+            planned.addAll(prefixes);
+        }
+
+        assertThat(planned, not(hasItem("build")));
+        assertThat(planned, not(hasItem("debug.log")));
+        assertThat(planned, hasItem("src/main/Main.java"));
+        for (String prefix: planned) {
+            assertThat(prefix, prefix.startsWith("build/"), is(false));
+        }
+    }
+
+    @Test public void shardsOfOnePlanCoverTheWorkingTreeOnce() throws Exception {
+        createTree();
+        File rootDir = gitFolder.getRepoDirectory();
+        File planFile = new File(gitFolder.getRepoDirectory(), ".git/shard-plan");
+        SnapshotShard.writePlan(SnapshotShard.plan(rootDir, 3), planFile);
+
+        List<SnapshotShard> shards = new ArrayList<>();
+        for (List<String> prefixes: SnapshotShard.readPlan(planFile)) {
+            shards.add(SnapshotShard.scan(rootDir, prefixes));
+        }
+
+        List<String> merged = SnapshotShard.merge(shards).entries();
+        assertThat(merged, is(SnapshotShard.scan(rootDir, Arrays.asList(".gitignore", "README", "src")).entries()));
+        assertThat(merged, hasItem("src/test/MainTest.java"));
+        assertThat(merged, not(hasItem("build/classes/Main.class")));
+    }
+
+    @Test public void planIsReadBackAsWritten() throws Exception {
+        List<List<String>> plan = Arrays.asList(Arrays.asList("a", "b/c"), Arrays.<String>asList(), Arrays.asList("d\ne"));
+        File planFile = new File(gitFolder.getRepoDirectory(), ".git/shard-plan");
+
+        SnapshotShard.writePlan(plan, planFile);
+
+        assertThat(SnapshotShard.readPlan(planFile), is(plan));
+    }
+
+    private void createTree() throws Exception {
+        for (String directory: Arrays.asList("build", "build/classes", "src", "src/main", "src/test")) {
+            gitFolder.mkdir(directory);
+        }
+        for (String file: Arrays.asList("README", "debug.log", "build/classes/Main.class", "src/main/Main.java",
+                "src/main/trace.log", "src/test/MainTest.java")) {
+            gitFolder.mkFileIn(file);
+        }
+        gitFolder.appendToGitignore("*.log\nbuild/");
+    }
+}
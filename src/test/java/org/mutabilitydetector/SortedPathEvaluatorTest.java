@@ -0,0 +1,63 @@
+package org.mutabilitydetector;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SortedPathEvaluatorTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    @Test public void decidesAsTheEngineDoes() throws Exception {
+        createTree();
+        GitIgnoresByGlob engine = engine();
+        SortedPathEvaluator evaluator = new SortedPathEvaluator(engine);
+
+        for (String path: Arrays.asList("README", "build/", "build/classes/A.class", "debug.log", "lib/",
+                "lib/debug.log", "src/", "src/main/", "src/main/Main.java", "src/main/keep.log", "src/main/trace.log")) {
+            boolean isDirectory = path.endsWith("/");
+            assertThat(path, evaluator.evaluate(path).isIgnored(), is(engine.explain(path, isDirectory).isIgnored()));
+        }
+    }
+
+    @Test public void loadsEachDirectoryOnceAndHoldsOnlyTheCurrentPath() throws Exception {
+        createTree();
+        SortedPathEvaluator evaluator = new SortedPathEvaluator(engine());
+        final List<String> ignored = new ArrayList<>();
+
+        evaluator.evaluate(new StringReader("a/b/c/one\na/b/c/two\na/b/d/three\nbuild/\nbuild/classes/A.class\n"
+                + "src/main/keep.log\nsrc/main/trace.log\n"), new SortedPathEvaluator.Decisions() {
+            @Override public void decided(String path, boolean isDirectory, IgnoreDecision decision) throws IOException {
+                if (decision.isIgnored()) {
+                    ignored.add(path);
+                }
+            }
+        });
+
+        assertThat(ignored, is(Arrays.asList("build/", "build/classes/A.class", "src/main/trace.log")));
+        assertThat(evaluator.directoriesLoaded(), is(8L));
+        assertThat(evaluator.maximumDepth(), is(3));
+    }
+
+    private void createTree() throws Exception {
+        for (String directory: Arrays.asList("build", "build/classes", "lib", "src", "src/main")) {
+            gitFolder.mkdir(directory);
+        }
+        gitFolder.appendToGitignore("*.log\nbuild/");
+        gitFolder.appendToGitignore("!keep.log", new File(gitFolder.getRepoDirectory(), "src/main"));
+        gitFolder.appendToGitignore("!*.log", new File(gitFolder.getRepoDirectory(), "lib"));
+    }
+
+    private GitIgnoresByGlob engine() {
+        return GitIgnoresByGlob.fromRootDir(gitFolder.getRepoDirectory().getAbsolutePath());
+    }
+}
@@ -0,0 +1,97 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TreeBasedGitIgnoreTest {
+
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    private Git git;
+
+    @Before public void openRepository() throws IOException {
+        git = Git.open(gitFolder.getRepoDirectory());
+    }
+
+    @After public void closeRepository() {
+        git.getRepository().close();
+    }
+
+    @Test public void evaluatesIgnoresAsOfEachCommit() throws Exception {
+        gitFolder.mkdir("folder");
+        writeGitignore("", "*.log");
+        writeGitignore("folder", "*.class");
+        RevCommit first = commitAll();
+        writeGitignore("", "*.tmp");
+        RevCommit second = commitAll();
+
+        GitIgnoresByGlob atFirst = new GitIgnoresByGlob(rootAt(first));
+        GitIgnoresByGlob atSecond = new GitIgnoresByGlob(rootAt(second));
+
+        assertThat(atFirst.isIgnored("debug.log"), is(true));
+        assertThat(atFirst.isIgnored("scratch.tmp"), is(false));
+        assertThat(atSecond.isIgnored("debug.log"), is(false));
+        assertThat(atSecond.isIgnored("scratch.tmp"), is(true));
+        assertThat(atFirst.isIgnored("folder/Compiled.class"), is(true));
+        assertThat(atSecond.isIgnored("folder/Compiled.class"), is(true));
+    }
+
+    @Test public void compilesEachVersionOfAGitignoreOnceAcrossCommitsSharingACache() throws Exception {
+        gitFolder.mkdir("folder");
+        writeGitignore("", "*.log");
+        writeGitignore("folder", "*.class");
+        RevCommit first = commitAll();
+        writeGitignore("", "*.tmp");
+        RevCommit second = commitAll();
+
+        CompiledRulesCache cache = new CompiledRulesCache();
+        GitIgnoresByGlob atFirst = new GitIgnoresByGlob(rootAt(first), cache);
+        GitIgnoresByGlob atSecond = new GitIgnoresByGlob(rootAt(second), cache);
+        atFirst.isIgnored("folder/Compiled.class");
+        atSecond.isIgnored("folder/Compiled.class");
+
+        assertThat(cache.size(), is(3));
+        assertThat(cache.hits(), is(1L));
+        assertThat(atSecond.isIgnored("folder/Compiled.class"), is(true));
+        assertThat(atSecond.isIgnored("debug.log"), is(false));
+    }
+
+    @Test public void enginesOfDifferentKindsDoNotShareCompiledRules() throws Exception {
+        writeGitignore("", "*.log");
+        RevCommit commit = commitAll();
+
+        CompiledRulesCache cache = new CompiledRulesCache();
+        new GitIgnoresByGlob(rootAt(commit), cache).isIgnored("debug.log");
+        GitIgnoresWithJGit jgit = GitIgnoresWithJGit.fromRepositoryRoot(rootAt(commit), cache);
+
+        assertThat(jgit.isIgnored("debug.log"), is(true));
+        assertThat(cache.size(), is(2));
+        assertThat(cache.hits(), is(0L));
+    }
+
+    private void writeGitignore(String directory, String content) throws IOException {
+        File gitignore = new File(new File(gitFolder.getRepoDirectory(), directory), ".gitignore");
+        Files.write(gitignore.toPath(), (content + "\n").getBytes(Charset.forName("UTF-8")));
+    }
+
+    private RepositoryRoot rootAt(RevCommit commit) {
+        return TreeBasedGitIgnore.root(git.getRepository(), commit.getTree());
+    }
+
+    private RevCommit commitAll() throws Exception {
+        git.add().addFilepattern(".").call();
+        return git.commit().setMessage("rules").call();
+    }
+}
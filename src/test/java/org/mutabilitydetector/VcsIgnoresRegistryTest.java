@@ -0,0 +1,284 @@
+package org.mutabilitydetector;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class VcsIgnoresRegistryTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+    @Rule public GitFolder gitFolder = new GitFolder();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After public void shutdownExecutor() {
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test public void handsOutOneEnginePerCanonicalRoot() throws Exception {
+        File root = folder.newFolder("root");
+        CountingOpener opener = new CountingOpener(100);
+        VcsIgnoresRegistry registry = new VcsIgnoresRegistry(opener, Long.MAX_VALUE);
+
+        VcsIgnores first = registry.forRoot(root);
+
+        assertThat(registry.forRoot(new File(root, ".")), is(sameInstance(first)));
+        assertThat(opener.opened(root), is(1));
+    }
+
+    @Test public void opensEachRootOnceWhenAskedForFromManyThreadsAtOnce() throws Exception {
+        final File root = folder.newFolder("root");
+        final CountingOpener opener = new CountingOpener(100);
+        final VcsIgnoresRegistry registry = new VcsIgnoresRegistry(opener, Long.MAX_VALUE);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<VcsIgnores>> engines = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            engines.add(executor.submit(new Callable<VcsIgnores>() {
+                @Override public VcsIgnores call() throws Exception {
+                    start.await();
+                    return registry.forRoot(root);
+                }
+            }));
+        }
+        start.countDown();
+
+        for (Future<VcsIgnores> engine: engines) {
+            assertThat(engine.get(), is(sameInstance(engines.get(0).get())));
+        }
+        assertThat(opener.opened(root), is(1));
+    }
+
+    @Test public void opensARootWithoutHoldingUpOtherRoots() throws Exception {
+        final File slow = folder.newFolder("slow");
+        File fast = folder.newFolder("fast");
+        final CountDownLatch slowOpening = new CountDownLatch(1);
+        final CountDownLatch releaseSlow = new CountDownLatch(1);
+        final VcsIgnoresRegistry registry = new VcsIgnoresRegistry(new VcsIgnoresRegistry.Opener() {
+            @Override public VcsIgnores open(File rootDir, CompiledRulesCache rulesCache) {
+                if (rootDir.getName().equals("slow")) {
+                    slowOpening.countDown();
+                    awaitQuietly(releaseSlow);
+                }
+                return new SizedIgnores(100);
+            }
+        }, Long.MAX_VALUE);
+
+        Future<VcsIgnores> slowEngine = executor.submit(new Callable<VcsIgnores>() {
+            @Override public VcsIgnores call() {
+                return registry.forRoot(slow);
+            }
+        });
+        assertThat(slowOpening.await(10, TimeUnit.SECONDS), is(true));
+
+        assertThat(registry.forRoot(fast).isIgnored("anything"), is(false));
+        assertThat(slowEngine.isDone(), is(false));
+        releaseSlow.countDown();
+        assertThat(slowEngine.get(10, TimeUnit.SECONDS).isIgnored("anything"), is(false));
+    }
+
+    @Test public void evictsTheLeastRecentlyQueriedRepositoryWhenOverBudget() throws Exception {
+        File first = folder.newFolder("first");
+        File second = folder.newFolder("second");
+        File third = folder.newFolder("third");
+        CountingOpener opener = new CountingOpener(100);
+        VcsIgnoresRegistry registry = new VcsIgnoresRegistry(opener, 250);
+
+        VcsIgnores firstEngine = registry.forRoot(first);
+        registry.forRoot(second);
+        Thread.sleep(1);
+        firstEngine.isIgnored("queried");
+        registry.forRoot(third);
+
+        assertThat(registry.size(), is(2));
+        assertThat(registry.evictions(), is(1L));
+        assertThat(registry.forRoot(first), is(sameInstance(firstEngine)));
+        assertThat(opener.opened(first), is(1));
+    }
+
+    @Test public void evictedEngineAnswersThroughAFreshlyOpenedOne() throws Exception {
+        File root = folder.newFolder("root");
+        CountingOpener opener = new CountingOpener(100);
+        VcsIgnoresRegistry registry = new VcsIgnoresRegistry(opener, Long.MAX_VALUE);
+        VcsIgnores engine = registry.forRoot(root);
+
+        registry.evict(root);
+        assertThat(registry.size(), is(0));
+
+        assertThat(engine.isIgnored("ignored"), is(true));
+        assertThat(opener.opened(root), is(2));
+        assertThat(registry.size(), is(1));
+        assertThat(registry.estimatedBytes(), is(100L));
+    }
+
+    @Test public void sharedCacheDropsItsLeastRecentlyUsedRulesFirst() throws Exception {
+        CompiledRulesCache cache = new CompiledRulesCache();
+        BaseGitIgnore compiler = GitIgnoresByGlob.fromRootDir(folder.getRoot().getAbsolutePath());
+        ObjectId first = ObjectId.fromString("1111111111111111111111111111111111111111");
+        ObjectId second = ObjectId.fromString("2222222222222222222222222222222222222222");
+        ObjectId third = ObjectId.fromString("3333333333333333333333333333333333333333");
+        CompiledIgnoreRules rules = compiler.compile(Collections.<IgnoreRule>emptyList());
+        cache.put(compiler, first, rules);
+        cache.put(compiler, second, rules);
+        cache.put(compiler, third, rules);
+        Thread.sleep(1);
+        cache.get(compiler, first);
+
+        assertThat(cache.trimTo(cache.estimatedBytes() - 1), is(1));
+
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get(compiler, first), is(sameInstance(rules)));
+        assertThat(cache.get(compiler, third), is(sameInstance(rules)));
+    }
+
+    @Test public void checksEnginesGrowingFromQueriesOnScheduleRatherThanOnEveryLookup() throws Exception {
+        File first = folder.newFolder("first");
+        File second = folder.newFolder("second");
+        final SizedIgnores growing = new SizedIgnores(100);
+        VcsIgnoresRegistry registry = new VcsIgnoresRegistry(new VcsIgnoresRegistry.Opener() {
+            @Override public VcsIgnores open(File rootDir, CompiledRulesCache rulesCache) {
+                return rootDir.getName().equals("first") ? growing : new SizedIgnores(100);
+            }
+        }, 250);
+        registry.forRoot(first);
+        registry.forRoot(second);
+
+        growing.bytes = 200;
+        registry.forRoot(first).isIgnored("queried");
+        assertThat(registry.evictions(), is(0L));
+
+        registry.scheduleBudgetChecks(scheduler, 1, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 1000 && registry.evictions() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(registry.evictions(), is(1L));
+        assertThat(registry.size(), is(1));
+    }
+
+    @Test public void countsRulesHeldByAnEngineAfterTheSharedCacheDropsThem() throws Exception {
+        gitFolder.appendToGitignore("*.log\n!keep.log\nbuild/\n");
+        VcsIgnoresRegistry registry = new VcsIgnoresRegistry(VcsIgnoresRegistry.BY_GLOB, Long.MAX_VALUE);
+        assertThat(registry.forRoot(gitFolder.getRepoDirectory()).isIgnored("debug.log"), is(true));
+        long estimate = registry.estimatedBytes();
+
+        registry.rulesCache().clear();
+
+        assertThat(registry.rulesCache().size(), is(0));
+        assertThat(registry.estimatedBytes(), is(estimate));
+    }
+
+    @Test public void countsRulesSharedByEnginesAndTheCacheOnce() throws Exception {
+        gitFolder.appendToGitignore("*.log\n!keep.log\nbuild/\n");
+        VcsIgnoresRegistry registry = new VcsIgnoresRegistry(VcsIgnoresRegistry.BY_GLOB, Long.MAX_VALUE);
+        VcsIgnores engine = registry.forRoot(gitFolder.getRepoDirectory());
+        long opened = registry.estimatedBytes();
+
+        engine.isIgnored("debug.log");
+        long cacheGrowth = registry.rulesCache().estimatedBytes();
+
+        assertThat(cacheGrowth > 0, is(true));
+        assertThat(registry.estimatedBytes() - opened < 2 * cacheGrowth, is(true));
+    }
+
+    @Test public void trimsOnlyRulesNoOpenEngineHolds() throws Exception {
+        gitFolder.appendToGitignore("*.log\n!keep.log\nbuild/\n");
+        VcsIgnoresRegistry registry = new VcsIgnoresRegistry(VcsIgnoresRegistry.BY_GLOB, 1);
+        VcsIgnores engine = registry.forRoot(gitFolder.getRepoDirectory());
+        engine.isIgnored("debug.log");
+
+        registry.enforceBudget();
+
+        assertThat(registry.size(), is(1));
+        assertThat(registry.rulesCache().size(), is(1));
+    }
+
+    @Test public void trimmingTheSharedCacheKeepsTheRulesInUse() throws Exception {
+        CompiledRulesCache cache = new CompiledRulesCache();
+        BaseGitIgnore compiler = GitIgnoresByGlob.fromRootDir(folder.getRoot().getAbsolutePath());
+        ObjectId first = ObjectId.fromString("1111111111111111111111111111111111111111");
+        ObjectId second = ObjectId.fromString("2222222222222222222222222222222222222222");
+        CompiledIgnoreRules inUse = compiler.compile(Collections.<IgnoreRule>emptyList());
+        CompiledIgnoreRules unused = compiler.compile(Collections.<IgnoreRule>emptyList());
+        cache.put(compiler, first, inUse);
+        Thread.sleep(1);
+        cache.put(compiler, second, unused);
+
+        assertThat(cache.trimTo(0, Collections.singleton(inUse)), is(1));
+
+        assertThat(cache.get(compiler, first), is(sameInstance(inUse)));
+        assertThat(cache.get(compiler, second), is((CompiledIgnoreRules) null));
+        assertThat(cache.estimatedBytesWith(Arrays.asList(inUse, unused)),
+                is(CompiledRulesCache.estimatedBytes(inUse) + CompiledRulesCache.estimatedBytes(unused)));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class CountingOpener implements VcsIgnoresRegistry.Opener {
+        private final long engineBytes;
+        private final ConcurrentMap<String, AtomicInteger> opened = new ConcurrentHashMap<>();
+
+        CountingOpener(long engineBytes) {
+            this.engineBytes = engineBytes;
+        }
+
+        @Override
+        public VcsIgnores open(File rootDir, CompiledRulesCache rulesCache) {
+            opened.putIfAbsent(rootDir.getName(), new AtomicInteger());
+            opened.get(rootDir.getName()).incrementAndGet();
+            return new SizedIgnores(engineBytes);
+        }
+
+        int opened(File rootDir) {
+            AtomicInteger count = opened.get(rootDir.getName());
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    private static final class SizedIgnores implements VcsIgnores, RetainedSize {
+        volatile long bytes;
+
+        SizedIgnores(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public boolean isIgnored(String relativePath) {
+            return relativePath.startsWith("ignored");
+        }
+
+        @Override
+        public long estimatedRetainedBytes() {
+            return bytes;
+        }
+    }
+}